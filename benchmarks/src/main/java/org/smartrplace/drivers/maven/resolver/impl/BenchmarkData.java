@@ -0,0 +1,86 @@
+/**
+ * Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.drivers.maven.resolver.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates realistic test data for the benchmarks: artifacts with groupIds of varying depth,
+ * config files and jar-sized files with random content.
+ */
+class BenchmarkData {
+
+	private final static String[] SEGMENTS = {"org", "smartrplace", "apps", "drivers", "hw", "install", "devices",
+		"sensors", "knx", "homematic", "api", "impl", "tools", "util", "base", "core"};
+
+	private BenchmarkData() {}
+
+	/**
+	 * @param count
+	 * @param depth
+	 * 		number of segments of the groupIds
+	 * @return
+	 * 		artifacts with distinct coordinates; about half of the artifactIds repeat the end of the groupId,
+	 * 		as is common practice
+	 */
+	static List<MavenArtifact> artifacts(final int count, final int depth) {
+		final Random random = new Random(count * 31 + depth);
+		final List<MavenArtifact> artifacts = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			final StringBuilder groupId = new StringBuilder("org");
+			for (int j = 1; j < depth; j++) {
+				groupId.append('.').append(SEGMENTS[random.nextInt(SEGMENTS.length)]);
+			}
+			final String last = groupId.substring(groupId.lastIndexOf(".") + 1);
+			final String artifactId = (i % 2 == 0 ? last + "-" : "") + "module" + i;
+			artifacts.add(new MavenArtifact(groupId.toString(), artifactId, "1." + (i % 10) + "." + (i % 7), 1 + i % 30, true));
+		}
+		return artifacts;
+	}
+
+	static void writeConfig(final Path file, final List<MavenArtifact> artifacts) throws IOException {
+		try (final Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+			writer.write("<!DOCTYPE configuration\n[\n\t<!ENTITY default-version \"1.0.0\">\n]>\n");
+			writer.write("<configuration>\n\t<bundles>\n");
+			for (MavenArtifact a : artifacts) {
+				writer.write("\t\t<bundle groupId=\"" + a.getGroupId() + "\" artifactId=\"" + a.getArtifactId()
+						+ "\" version=\"" + a.getVersion() + "\" startLevel=\"" + a.getStartLevel() + "\" />\n");
+			}
+			writer.write("\t</bundles>\n\t<deleteList>\n\t\t<file>data</file>\n\t</deleteList>\n</configuration>\n");
+		}
+	}
+
+	static void writeRandom(final Path file, final long size) throws IOException {
+		final Random random = new Random(size);
+		final byte[] buffer = new byte[64 * 1024];
+		try (final OutputStream out = Files.newOutputStream(file)) {
+			for (long written = 0; written < size; written += buffer.length) {
+				random.nextBytes(buffer);
+				out.write(buffer, 0, (int) Math.min(buffer.length, size - written));
+			}
+		}
+	}
+
+}
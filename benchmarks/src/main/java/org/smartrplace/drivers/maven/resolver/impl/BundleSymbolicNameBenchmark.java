@@ -0,0 +1,63 @@
+/**
+ * Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.drivers.maven.resolver.impl;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Computation of the bundle symbolic name from groupId and artifactId, for 1000 artifacts.
+ * A new artifact instance is created for each computation, since the result is cached per instance.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BundleSymbolicNameBenchmark {
+
+	// number of segments of the groupIds
+	@Param({"2", "4", "8"})
+	public int depth;
+	private List<MavenArtifact> artifacts;
+
+	@Setup
+	public void setup() {
+		artifacts = BenchmarkData.artifacts(1000, depth);
+	}
+
+	@Benchmark
+	public void getBundleSymbolicName(final Blackhole blackhole) {
+		for (MavenArtifact a : artifacts) {
+			blackhole.consume(new MavenArtifact(a.getGroupId(), a.getArtifactId(), a.getVersion(), 1, true).getBundleSymbolicName());
+		}
+	}
+
+}
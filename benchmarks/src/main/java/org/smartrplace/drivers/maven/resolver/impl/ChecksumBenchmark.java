@@ -0,0 +1,93 @@
+/**
+ * Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.drivers.maven.resolver.impl;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.binary.Hex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.smartrplace.drivers.maven.resolver.impl.checksums.ChecksumValidation;
+import org.smartrplace.drivers.maven.resolver.impl.checksums.Checksums;
+
+/**
+ * Checksum validation of jar files between 10 KB and 50 MB, via the streaming validation and
+ * via the memory mapped digest used for cached artifacts.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChecksumBenchmark {
+
+	@Param({"md5", "sha1"})
+	public String algorithm;
+	@Param({"10240", "1048576", "10485760", "52428800"})
+	public long size;
+	private Path dir;
+	private Path file;
+	private ChecksumValidation validation;
+	private String checksum;
+
+	@Setup
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory("maven-resolver-benchmark");
+		file = dir.resolve("artifact.jar");
+		BenchmarkData.writeRandom(file, size);
+		validation = Checksums.getValidator(algorithm);
+		final MessageDigest digest = validation.newDigest();
+		Checksums.digest(file, digest);
+		checksum = Hex.encodeHexString(digest.digest());
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		Trash.deleteRecursively(dir);
+	}
+
+	@Benchmark
+	public boolean validateStream() throws IOException {
+		try (final InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+			return validation.validate(in, checksum);
+		}
+	}
+
+	@Benchmark
+	public byte[] digestMapped() throws IOException {
+		final MessageDigest digest = validation.newDigest();
+		Checksums.digest(file, digest);
+		return digest.digest();
+	}
+
+}
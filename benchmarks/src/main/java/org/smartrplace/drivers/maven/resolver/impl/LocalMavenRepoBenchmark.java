@@ -0,0 +1,104 @@
+/**
+ * Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.drivers.maven.resolver.impl;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Lookup of 1000 artifacts in a local repository, via the index, via the file system (not indexed),
+ * and for missing artifacts.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LocalMavenRepoBenchmark {
+
+	// number of segments of the groupIds
+	@Param({"3", "8"})
+	public int depth;
+	private Path dir;
+	private LocalMavenRepo repo;
+	private List<MavenArtifact> artifacts;
+	private List<MavenArtifact> missing;
+
+	@Setup
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory("maven-resolver-benchmark");
+		System.setProperty("MAVEN_HOME", dir.toString());
+		repo = new LocalMavenRepo();
+		artifacts = BenchmarkData.artifacts(1000, depth);
+		missing = BenchmarkData.artifacts(1000, depth + 1);
+		for (MavenArtifact a : artifacts) {
+			Path file = repo.homeRepo;
+			for (String segment : a.getGroupId().split("\\.")) {
+				file = file.resolve(segment);
+			}
+			file = file.resolve(a.getArtifactId()).resolve(a.getVersion());
+			Files.createDirectories(file);
+			BenchmarkData.writeRandom(file.resolve(a.getArtifactId() + "-" + a.getVersion() + ".jar"), 1024);
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		System.clearProperty("MAVEN_HOME");
+		Trash.deleteRecursively(dir);
+	}
+
+	@Benchmark
+	public void resolveIndexed(final Blackhole blackhole) {
+		for (MavenArtifact a : artifacts) {
+			blackhole.consume(repo.resolveFile(a));
+		}
+	}
+
+	@Benchmark
+	public void resolveNotIndexed(final Blackhole blackhole) {
+		for (MavenArtifact a : artifacts) {
+			repo.invalidate(a);
+			blackhole.consume(repo.resolveFile(a));
+		}
+	}
+
+	@Benchmark
+	public void resolveMissing(final Blackhole blackhole) {
+		for (MavenArtifact a : missing) {
+			blackhole.consume(repo.resolveFile(a));
+		}
+	}
+
+}
@@ -0,0 +1,172 @@
+/**
+ * Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.drivers.maven.resolver.impl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded cache of requested artifact coordinates to the path of the resolved artifact in the local 
+ * repository, evicting the least recently used entries. Entries for dynamic versions (snapshots, 
+ * ranges, LATEST and RELEASE) expire after a time to live, so that new versions are picked up. 
+ * Concurrent lookups of an artifact that is not cached share a single resolution, including the
+ * version resolution, executed by the first caller.
+ */
+class ArtifactPathCache {
+
+	// guarded by itself
+	private final Map<String, CachedPath> cache;
+	private final ConcurrentMap<String, FutureTask<Lookup>> inflight = new ConcurrentHashMap<>();
+	private final long ttlNanos;
+
+	@SuppressWarnings("serial")
+	ArtifactPathCache(final int maxSize, final long ttl) {
+		this.cache = new LinkedHashMap<String, CachedPath>(16, 0.75f, true) {
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedPath> eldest) {
+				return size() > maxSize;
+			}
+
+		};
+		this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttl);
+	}
+
+	/**
+	 * @param artifact
+	 * 		the requested coordinates, possibly with a dynamic version
+	 * @param loader
+	 * 		resolves the version and the artifact if it is not cached; returns a lookup with a null path 
+	 * 		if the artifact is not found.
+	 * @return
+	 * 		the lookup result; for a cached path, {@link Lookup#remote} is false
+	 * @throws IOException
+	 */
+	Lookup get(final MavenArtifact artifact, final Callable<Lookup> loader) throws IOException {
+		final String key = artifact.getCoordinates();
+		CachedPath entry;
+		synchronized (cache) {
+			entry = cache.get(key);
+		}
+		if (entry != null) {
+			if (!entry.isExpired(ttlNanos) && Files.isRegularFile(entry.path))
+				return new Lookup(entry.path, false);
+			synchronized (cache) {
+				if (cache.get(key) == entry)
+					cache.remove(key);
+			}
+		}
+		final FutureTask<Lookup> task = new FutureTask<>(loader);
+		FutureTask<Lookup> existing = inflight.putIfAbsent(key, task);
+		if (existing == null) {
+			existing = task;
+			try {
+				task.run();
+				// cache the result before the task is removed, so that no further resolution is triggered
+				final Lookup result = getResult(task);
+				if (result != null && result.path != null) {
+					synchronized (cache) {
+						cache.put(key, new CachedPath(result.path, Versions.isDynamic(artifact.getVersion())));
+					}
+				}
+			} finally {
+				inflight.remove(key, task);
+			}
+		}
+		try {
+			return existing.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for " + artifact);
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new IOException(cause);
+		}
+	}
+
+	void clear() {
+		synchronized (cache) {
+			cache.clear();
+		}
+	}
+
+	/**
+	 * @return
+	 * 		the result of a completed task, or null if it failed
+	 */
+	private static Lookup getResult(final FutureTask<Lookup> task) {
+		try {
+			return task.get();
+		} catch (InterruptedException | ExecutionException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * The outcome of a resolution, shared by all callers waiting for it.
+	 */
+	static class Lookup {
+
+		/**
+		 * null if the artifact is not found
+		 */
+		final Path path;
+		/**
+		 * true if the artifact was not available in the local repository
+		 */
+		final boolean remote;
+
+		Lookup(Path path, boolean remote) {
+			this.path = path;
+			this.remote = remote;
+		}
+
+	}
+
+	private static class CachedPath {
+
+		final Path path;
+		final boolean dynamic;
+		final long created = System.nanoTime();
+
+		CachedPath(Path path, boolean dynamic) {
+			this.path = path;
+			this.dynamic = dynamic;
+		}
+
+		boolean isExpired(final long ttlNanos) {
+			return dynamic && System.nanoTime() - created > ttlNanos;
+		}
+
+	}
+
+}
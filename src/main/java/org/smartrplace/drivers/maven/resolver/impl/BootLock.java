@@ -0,0 +1,237 @@
+/**
+ * Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.drivers.maven.resolver.impl;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.osgi.framework.BundleContext;
+import org.smartrplace.drivers.maven.resolver.impl.checksums.Checksums;
+
+/**
+ * The resolution plan of a successful clean start: all configured artifacts with their 
+ * paths in the local repository, plus the delete list. If neither the config files nor the
+ * resolver settings that determine the resolved artifacts have changed (see {@link #getKey}),
+ * the next clean start installs the bundles directly from the lock file, without
+ * parsing the config or querying any repository.<br>
+ * File format: one tab-separated entry per line; 
+ * <code>config &lt;hash&gt;</code>, <code>delete &lt;path&gt;</code>, or 
+ * <code>artifact &lt;startLevel&gt; &lt;start&gt; &lt;groupId&gt; &lt;artifactId&gt; &lt;version&gt; &lt;size&gt; &lt;sha1&gt; &lt;path&gt;</code>,
+ * where size, sha1 and path are "-" for artifacts that were already installed.
+ */
+class BootLock {
+
+	private final static String NONE = "-";
+	final String configHash;
+	final List<Entry> entries;
+	final List<String> deleteFiles;
+
+	BootLock(String configHash, List<Entry> entries, List<String> deleteFiles) {
+		this.configHash = configHash;
+		this.entries = Collections.unmodifiableList(entries);
+		this.deleteFiles = Collections.unmodifiableList(deleteFiles);
+	}
+
+	/**
+	 * @param ctx
+	 * @return
+	 * 		null if lock files are disabled
+	 */
+	static Path getFile(final BundleContext ctx) {
+		if (!Properties.getBoolean(ctx, Properties.LOCK_FILE_PROPERTY, true))
+			return null;
+		return Properties.getStateDir(ctx).resolve("boot.lock");
+	}
+
+	/**
+	 * @param ctx
+	 * @param configHash
+	 * 		hash of the config files, see {@link ConfigParser#hash(List)}
+	 * @return
+	 * 		a sha1 hash over the config files, the transitive resolution settings and the 
+	 * 		repositories file, i.e. everything that determines which artifacts a clean start resolves
+	 * @throws IOException
+	 */
+	static String getKey(final BundleContext ctx, final String configHash) throws IOException {
+		final MessageDigest digest = DigestUtils.getSha1Digest();
+		update(digest, configHash);
+		update(digest, String.valueOf(Properties.getBoolean(ctx, Properties.TRANSITIVE_PROPERTY, false)));
+		String scopes = ctx.getProperty(Properties.TRANSITIVE_SCOPES_PROPERTY);
+		update(digest, scopes != null ? scopes : Properties.TRANSITIVE_SCOPES_DEFAULT);
+		String reposFile = ctx.getProperty(Properties.REPOSITORIES_FILE_PROPERTY);
+		if (reposFile == null)
+			reposFile = Properties.REPOSITORIES_FILE_DEFAULT;
+		update(digest, reposFile);
+		final Path repos = Paths.get(reposFile);
+		if (Files.isRegularFile(repos))
+			digest.update(Files.readAllBytes(repos));
+		return Hex.encodeHexString(digest.digest());
+	}
+
+	private static void update(final MessageDigest digest, final String value) {
+		digest.update(value.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+	}
+
+	ConfigFile getConfig() {
+		final List<MavenArtifact> artifacts = new ArrayList<>(entries.size());
+		for (Entry e : entries) {
+			artifacts.add(e.artifact);
+		}
+		return new ConfigFile(artifacts, deleteFiles);
+	}
+
+	/**
+	 * @return
+	 * 		null if the file does not exist or cannot be read
+	 */
+	static BootLock read(final Path file) {
+		if (!Files.isRegularFile(file))
+			return null;
+		String configHash = null;
+		final List<Entry> entries = new ArrayList<>();
+		final List<String> deleteFiles = new ArrayList<>();
+		try (final BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty() || line.startsWith("#"))
+					continue;
+				final String[] cmp = line.split("\t");
+				switch (cmp[0]) {
+				case "config":
+					configHash = cmp[1];
+					break;
+				case "delete":
+					deleteFiles.add(cmp[1]);
+					break;
+				case "artifact":
+					final MavenArtifact artifact = new MavenArtifact(cmp[3], cmp[4], cmp[5], Integer.parseInt(cmp[1]), Boolean.parseBoolean(cmp[2]));
+					if (NONE.equals(cmp[8]))
+						entries.add(new Entry(artifact, null, -1, null));
+					else
+						entries.add(new Entry(artifact, Paths.get(cmp[8]), Long.parseLong(cmp[6]), cmp[7]));
+					break;
+				default:
+					throw new IOException("Invalid line " + line);
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			MavenResolver.warn("Failed to read lock file " + file, e);
+			return null;
+		}
+		if (configHash == null)
+			return null;
+		return new BootLock(configHash, entries, deleteFiles);
+	}
+
+	void write(final Path file) throws IOException {
+		final Path parent = file.toAbsolutePath().getParent();
+		Files.createDirectories(parent);
+		LocalMavenRepo.writeAtomically(file, new LocalMavenRepo.FileContent() {
+
+			@Override
+			public void write(final BufferedWriter writer) throws IOException {
+				writer.write("# Generated by the Maven resolver; delete this file to enforce a new resolution");
+				writer.newLine();
+				writer.write("config\t" + configHash);
+				writer.newLine();
+				for (String delete : deleteFiles) {
+					writer.write("delete\t" + delete);
+					writer.newLine();
+				}
+				for (Entry e : entries) {
+					final MavenArtifact a = e.artifact;
+					writer.write("artifact\t" + a.getStartLevel() + "\t" + a.isDoStart() + "\t" + a.getGroupId() + "\t" 
+							+ a.getArtifactId() + "\t" + a.getVersion() + "\t" 
+							+ (e.path == null ? NONE + "\t" + NONE + "\t" + NONE : e.size + "\t" + e.sha1 + "\t" + e.path));
+					writer.newLine();
+				}
+			}
+		});
+	}
+
+	static class Entry {
+
+		final MavenArtifact artifact;
+		// null if the artifact was already installed
+		final Path path;
+		final long size;
+		final String sha1;
+
+		Entry(MavenArtifact artifact, Path path, long size, String sha1) {
+			this.artifact = artifact;
+			this.path = path;
+			this.size = size;
+			this.sha1 = sha1;
+		}
+
+		/**
+		 * Creates an entry for a file in the local repository, using the stored sha1 checksum if available.
+		 */
+		static Entry create(final MavenArtifact artifact, final Path path) throws IOException {
+			final Path checksumFile = path.resolveSibling(path.getFileName() + ".sha1");
+			String sha1 = null;
+			if (Files.isRegularFile(checksumFile))
+				sha1 = Checksums.parseChecksum(new String(Files.readAllBytes(checksumFile), StandardCharsets.UTF_8));
+			if (sha1 == null) {
+				try (final InputStream in = Files.newInputStream(path)) {
+					sha1 = DigestUtils.sha1Hex(in);
+				}
+			}
+			return new Entry(artifact, path.toAbsolutePath(), Files.size(path), sha1);
+		}
+
+		/**
+		 * A cheap check that the locked file is still available, based on its size.
+		 */
+		boolean isValid() {
+			try {
+				return path != null && Files.size(path) == size;
+			} catch (IOException e) {
+				return false;
+			}
+		}
+
+		/**
+		 * Like {@link #isValid()}, but also compares the sha1 digest of the file to the locked value.
+		 */
+		boolean verify() {
+			if (!isValid() || sha1 == null)
+				return false;
+			try {
+				final MessageDigest digest = Checksums.getValidator("sha1").newDigest();
+				Checksums.digest(path, digest);
+				return Checksums.matches(digest.digest(), sha1);
+			} catch (IOException e) {
+				return false;
+			}
+		}
+
+	}
+
+}
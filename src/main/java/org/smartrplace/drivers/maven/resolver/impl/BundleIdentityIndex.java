@@ -0,0 +1,184 @@
+/**
+ * Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.drivers.maven.resolver.impl;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Version;
+
+/**
+ * Index of the bundle identities of jar files, i.e. the Bundle-SymbolicName and Bundle-Version
+ * from their manifest, keyed by the sha1 digest of the file. Since the digest determines the content,
+ * entries never become stale. The manifest is located via the central directory of the jar, so the
+ * rest of the file is not read. The index is persisted in a file next to the local repository, 
+ * one entry per line: sha1 digest, symbolic name (or "-" for plain jars) and version, separated by tabs.
+ */
+class BundleIdentityIndex {
+
+	final static String FILE_NAME = "maven-resolver-bundles";
+	private final static String NO_BUNDLE = "-";
+	private final Path file;
+	// guarded by this
+	private final Map<String, Identity> entries = new HashMap<>();
+	// guarded by this
+	private boolean dirty;
+
+	BundleIdentityIndex(Path file) {
+		this.file = file;
+		read(file, entries);
+	}
+
+	/**
+	 * @param sha1
+	 * @return
+	 * 		the indexed identity, or null if the digest is not in the index. No file is accessed.
+	 */
+	synchronized Identity get(final String sha1) {
+		return entries.get(sha1);
+	}
+
+	/**
+	 * @param jar
+	 * @param sha1
+	 * 		the digest of the jar file
+	 * @return
+	 * 		the identity of the jar, read from its manifest unless it is already indexed
+	 * @throws IOException
+	 */
+	Identity read(final Path jar, final String sha1) throws IOException {
+		Identity identity = get(sha1);
+		if (identity != null)
+			return identity;
+		try (final JarFile jarFile = new JarFile(jar.toFile(), false)) {
+			final Manifest manifest = jarFile.getManifest();
+			final Attributes attributes = manifest == null ? null : manifest.getMainAttributes();
+			identity = attributes == null ? new Identity(null, Version.emptyVersion.toString()) : 
+				new Identity(attributes.getValue(Constants.BUNDLE_SYMBOLICNAME), attributes.getValue(Constants.BUNDLE_VERSION));
+		}
+		synchronized (this) {
+			entries.put(sha1, identity);
+			dirty = true;
+		}
+		return identity;
+	}
+
+	/**
+	 * Writes the index to disk, merged with entries added concurrently by other instances.
+	 */
+	synchronized void flush() {
+		if (!dirty)
+			return;
+		final Map<String, Identity> merged = new HashMap<>();
+		read(file, merged);
+		merged.putAll(entries);
+		try {
+			LocalMavenRepo.writeAtomically(file, new LocalMavenRepo.FileContent() {
+
+				@Override
+				public void write(final BufferedWriter writer) throws IOException {
+					for (Map.Entry<String, Identity> entry : merged.entrySet()) {
+						final Identity identity = entry.getValue();
+						writer.write(entry.getKey() + "\t" + (identity.symbolicName == null ? NO_BUNDLE : identity.symbolicName) 
+								+ "\t" + identity.version);
+						writer.newLine();
+					}
+				}
+			});
+			dirty = false;
+		} catch (IOException e) {
+			MavenResolver.warn("Failed to persist bundle index " + file, e);
+		}
+	}
+
+	private static void read(final Path file, final Map<String, Identity> target) {
+		if (!Files.isRegularFile(file))
+			return;
+		try (final BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				final String[] fields = line.split("\t");
+				if (fields.length != 3)
+					continue;
+				target.put(fields[0], new Identity(NO_BUNDLE.equals(fields[1]) ? null : fields[1], fields[2]));
+			}
+		} catch (IOException e) {
+			MavenResolver.warn("Failed to read bundle index " + file, e);
+		}
+	}
+
+	static class Identity {
+
+		// null if the jar is not a bundle
+		final String symbolicName;
+		final String version;
+
+		/**
+		 * @param symbolicName
+		 * 		the Bundle-SymbolicName header; directives are removed
+		 * @param version
+		 * 		the Bundle-Version header, normalized
+		 */
+		Identity(String symbolicName, String version) {
+			if (symbolicName != null) {
+				final int idx = symbolicName.indexOf(';');
+				symbolicName = (idx < 0 ? symbolicName : symbolicName.substring(0, idx)).trim();
+				if (symbolicName.isEmpty())
+					symbolicName = null;
+			}
+			this.symbolicName = symbolicName;
+			this.version = normalize(version);
+		}
+
+		/**
+		 * @param installed
+		 * 		symbolic name -> installed bundle
+		 * @return
+		 * 		true if a bundle with the same symbolic name is installed
+		 */
+		boolean isInstalled(final Map<String, Bundle> installed) {
+			return symbolicName != null && installed.containsKey(symbolicName);
+		}
+
+		private static String normalize(final String version) {
+			if (version == null)
+				return Version.emptyVersion.toString();
+			try {
+				return Version.parseVersion(version.trim()).toString();
+			} catch (IllegalArgumentException e) {
+				return version.trim();
+			}
+		}
+
+		@Override
+		public String toString() {
+			return symbolicName + ":" + version;
+		}
+
+	}
+
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.drivers.maven.resolver.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+
+/**
+ * Starts the bundles of one start level. With a parallelism greater than 1, bundles are started 
+ * concurrently, but each bundle only after all bundles of the same level it is wired to 
+ * as a requirer have been started. Otherwise, they are started one after another, in the 
+ * order given.
+ */
+class BundleStarter {
+
+	private final int parallelism;
+
+	BundleStarter(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	void start(final List<Bundle> bundles) throws InterruptedException {
+		if (parallelism <= 1 || bundles.size() <= 1) {
+			for (Bundle b : bundles) {
+				start(b);
+			}
+			return;
+		}
+		final Map<Bundle, Set<Bundle>> providers = getProviders(bundles);
+		final Map<Bundle, List<Bundle>> dependents = new HashMap<>(bundles.size());
+		for (Map.Entry<Bundle, Set<Bundle>> entry : providers.entrySet()) {
+			for (Bundle provider : entry.getValue()) {
+				List<Bundle> list = dependents.get(provider);
+				if (list == null) {
+					list = new ArrayList<>();
+					dependents.put(provider, list);
+				}
+				list.add(entry.getKey());
+			}
+		}
+		final ExecutorService exec = ResolverExecutors.newPool("maven-resolver-start", Math.min(parallelism, bundles.size()));
+		try {
+			final CompletionService<Bundle> cs = new ExecutorCompletionService<>(exec);
+			// in original order
+			final Set<Bundle> waiting = new LinkedHashSet<>(bundles);
+			int running = 0;
+			for (Bundle b : bundles) {
+				if (providers.get(b).isEmpty()) {
+					waiting.remove(b);
+					cs.submit(new StartTask(b));
+					running++;
+				}
+			}
+			while (running > 0 || !waiting.isEmpty()) {
+				if (running == 0) {
+					// cyclic dependencies; start the first waiting bundle anyway
+					final Bundle b = waiting.iterator().next();
+					waiting.remove(b);
+					cs.submit(new StartTask(b));
+					running++;
+				}
+				final Bundle started;
+				try {
+					started = cs.take().get();
+				} catch (ExecutionException e) { // cannot happen
+					throw new RuntimeException(e.getCause());
+				}
+				running--;
+				final List<Bundle> list = dependents.get(started);
+				if (list == null)
+					continue;
+				for (Bundle dependent : list) {
+					final Set<Bundle> open = providers.get(dependent);
+					open.remove(started);
+					if (open.isEmpty() && waiting.remove(dependent)) {
+						cs.submit(new StartTask(dependent));
+						running++;
+					}
+				}
+			}
+		} finally {
+			exec.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return
+	 * 		for each bundle the set of bundles from the list that it requires capabilities from
+	 */
+	private static Map<Bundle, Set<Bundle>> getProviders(final List<Bundle> bundles) {
+		final Set<Bundle> all = new HashSet<>(bundles);
+		final Map<Bundle, Set<Bundle>> providers = new HashMap<>(bundles.size());
+		for (Bundle b : bundles) {
+			final Set<Bundle> set = new HashSet<>(4);
+			final BundleWiring wiring = b.adapt(BundleWiring.class);
+			final List<BundleWire> wires = wiring != null ? wiring.getRequiredWires(null) : null;
+			if (wires != null) {
+				for (BundleWire wire : wires) {
+					final Bundle provider = wire.getProviderWiring().getBundle();
+					if (provider != b && all.contains(provider))
+						set.add(provider);
+				}
+			}
+			providers.put(b, set);
+		}
+		return providers;
+	}
+
+	private static void start(final Bundle b) {
+		final long start = System.nanoTime();
+		try {
+			b.start();
+		} catch (Exception e) {
+			MavenResolver.info("Failed to start bundle " + b.getSymbolicName());
+		}
+		StartupTrace.span(String.valueOf(b.getSymbolicName()), "start", start, System.nanoTime(), String.valueOf(b.getBundleId()));
+	}
+
+	private static class StartTask implements Callable<Bundle> {
+
+		private final Bundle bundle;
+
+		StartTask(Bundle bundle) {
+			this.bundle = bundle;
+		}
+
+		@Override
+		public Bundle call() {
+			start(bundle);
+			return bundle;
+		}
+
+	}
+
+}
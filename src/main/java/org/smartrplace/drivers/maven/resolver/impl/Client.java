@@ -16,25 +16,164 @@
 package org.smartrplace.drivers.maven.resolver.impl;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+import org.osgi.framework.BundleContext;
+import org.smartrplace.drivers.maven.resolver.impl.checksums.Checksums;
 
 class Client {
 
-	private final CloseableHttpClient client = HttpClients.createDefault();
+	private final CloseableHttpClient client;
+
+	Client(BundleContext ctx) {
+		final int parallelism = Properties.getInt(ctx, Properties.PARALLELISM_PROPERTY, Properties.PARALLELISM_DEFAULT);
+		// checksum files are requested concurrently with each artifact
+		final int maxPerRoute = Properties.getInt(ctx, Properties.HTTP_MAX_CONNECTIONS_PER_ROUTE_PROPERTY, 
+				(1 + Checksums.getAlgos().size()) * Math.max(1, parallelism));
+		final int maxTotal = Properties.getInt(ctx, Properties.HTTP_MAX_CONNECTIONS_PROPERTY, 2 * maxPerRoute);
+		final long keepAlive = Properties.getLong(ctx, Properties.HTTP_KEEP_ALIVE_PROPERTY, Properties.HTTP_KEEP_ALIVE_DEFAULT);
+		final long idleTimeout = Properties.getLong(ctx, Properties.HTTP_IDLE_TIMEOUT_PROPERTY, Properties.HTTP_IDLE_TIMEOUT_DEFAULT);
+		final PoolingHttpClientConnectionManager cm = new PoolingHttpClientConnectionManager();
+		cm.setDefaultMaxPerRoute(Math.max(1, maxPerRoute));
+		cm.setMaxTotal(Math.max(1, maxTotal));
+		final RequestConfig config = RequestConfig.custom()
+				.setConnectTimeout(Properties.getInt(ctx, Properties.HTTP_CONNECT_TIMEOUT_PROPERTY, Properties.HTTP_CONNECT_TIMEOUT_DEFAULT))
+				.setSocketTimeout(Properties.getInt(ctx, Properties.HTTP_SOCKET_TIMEOUT_PROPERTY, Properties.HTTP_SOCKET_TIMEOUT_DEFAULT))
+				.setConnectionRequestTimeout(Properties.getInt(ctx, Properties.HTTP_CONNECTION_REQUEST_TIMEOUT_PROPERTY, 
+						Properties.HTTP_CONNECTION_REQUEST_TIMEOUT_DEFAULT))
+				.build();
+		final HttpClientBuilder builder = HttpClients.custom()
+				.setConnectionManager(cm)
+				.setDefaultRequestConfig(config)
+				.setKeepAliveStrategy(new KeepAliveStrategy(keepAlive));
+		if (idleTimeout > 0)
+			builder.evictExpiredConnections().evictIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+		this.client = builder.build();
+	}
 	
-	InputStream download(final String baseUrl, final MavenArtifact artifact) throws ClientProtocolException, IOException {
-		return download(baseUrl, artifact, null);
+	/**
+	 * @param baseUrl
+	 * @param artifact
+	 * @return
+	 * 		null if the artifact does not exist in the repository
+	 * @throws IOException
+	 * 		if the request failed, or the repository responded with an error other than 404 or 410
+	 */
+	Download download(final String baseUrl, final MavenArtifact artifact) throws ClientProtocolException, IOException {
+		return download(baseUrl, artifact, null, null);
+	}
+
+	Download download(final String baseUrl, final MavenArtifact artifact, String checksumAlgo) throws ClientProtocolException, IOException {
+		return download(baseUrl, artifact, checksumAlgo, null);
+	}
+
+	/**
+	 * Resumes a partial download with a Range request. If the server does not support ranges, or 
+	 * the resource has changed since the partial download, the complete artifact is returned; 
+	 * see {@link Download#offset}. 
+	 * @param baseUrl
+	 * @param artifact
+	 * @param partial
+	 * 		may be null
+	 * @return
+	 * @throws ClientProtocolException
+	 * @throws IOException
+	 */
+	Download download(final String baseUrl, final MavenArtifact artifact, PartialDownload partial) throws ClientProtocolException, IOException {
+		return download(baseUrl, artifact, null, partial);
+	}
+
+	/**
+	 * Downloads a file other than the jar, such as the pom, from the artifact folder.
+	 * @param baseUrl
+	 * @param artifact
+	 * @param extension
+	 * 		file extension, e.g. "pom"
+	 * @return
+	 * 		null if the file does not exist in the repository
+	 * @throws IOException
+	 */
+	Download downloadFile(final String baseUrl, final MavenArtifact artifact, final String extension) throws IOException {
+		return get(getUrl(baseUrl, artifact, extension, null), null);
 	}
 
-	InputStream download(final String baseUrl, final MavenArtifact artifact, String checksumAlgo) throws ClientProtocolException, IOException {
+	/**
+	 * Downloads a maven-metadata.xml file, conditionally if the validator of a cached copy is given.
+	 * @param baseUrl
+	 * @param groupId
+	 * @param artifactId
+	 * @param version
+	 * 		null for the metadata of the artifact, or the snapshot version for the snapshot metadata
+	 * @param validator
+	 * 		ETag or Last-Modified value of the cached copy; may be null
+	 * @return
+	 * 		null if the file does not exist in the repository. If the cached copy is still valid,
+	 * 		a Download with {@link Download#notModified} set and empty content.
+	 * @throws IOException
+	 */
+	Download downloadMetadata(final String baseUrl, final String groupId, final String artifactId, final String version, 
+			final String validator) throws IOException {
+		final StringBuilder sb = new StringBuilder();
+		if (baseUrl.endsWith("/"))
+			sb.append(baseUrl.substring(0, baseUrl.length()-1));
+		else
+			sb.append(baseUrl);
+		for (String cmp : groupId.split("\\.")) {
+			sb.append('/').append(cmp);
+		}
+		sb.append('/').append(artifactId);
+		if (version != null)
+			sb.append('/').append(version);
+		sb.append("/maven-metadata.xml");
+		final HttpGet get = new HttpGet(sb.toString());
+		if (validator != null) {
+			if (validator.startsWith("\""))
+				get.setHeader(HttpHeaders.IF_NONE_MATCH, validator);
+			else
+				get.setHeader(HttpHeaders.IF_MODIFIED_SINCE, validator);
+		}
+		final CloseableHttpResponse resp = client.execute(get);
+		final int status = resp.getStatusLine().getStatusCode();
+		if (status == HttpStatus.SC_NOT_MODIFIED) {
+			closeSmoothly(resp);
+			return new Download(new ByteArrayInputStream(new byte[0]), null, 0, validator, true);
+		}
+		if (status / 100 != 2) {
+			closeSmoothly(resp);
+			if (status == HttpStatus.SC_NOT_FOUND || status == HttpStatus.SC_GONE)
+				return null;
+			throw new IOException("Unexpected response status " + status + " for " + get.getURI());
+		}
+		return new Download(resp.getEntity().getContent(), resp, 0, getValidator(resp));
+	}
+
+	private Download download(final String baseUrl, final MavenArtifact artifact, String checksumAlgo, PartialDownload partial) throws ClientProtocolException, IOException {
+		return get(getUrl(baseUrl, artifact, "jar", checksumAlgo), partial);
+	}
+
+	private static String getUrl(final String baseUrl, final MavenArtifact artifact, final String extension, final String checksumAlgo) {
 		final StringBuilder sb = new StringBuilder();
 		if (baseUrl.endsWith("/"))
 			sb.append(baseUrl.substring(0, baseUrl.length()-1));
@@ -43,21 +182,138 @@ class Client {
 		for (String cmp : artifact.getGroupId().split("\\.")) {
 			sb.append('/').append(cmp);
 		}
-		sb.append('/').append(artifact.getArtifactId()).append('/').append(artifact.getVersion()).append('/')
-			.append(artifact.getArtifactId()).append('-').append(artifact.getVersion()).append(".jar");
+		sb.append('/').append(artifact.getArtifactId()).append('/').append(artifact.getBaseVersion()).append('/')
+			.append(artifact.getArtifactId()).append('-').append(artifact.getVersion()).append('.').append(extension);
 		if (checksumAlgo != null) {
 			sb.append('.').append(checksumAlgo);
 		}
-		final HttpGet get = new HttpGet(sb.toString());
+		return sb.toString();
+	}
+
+	/**
+	 * @param partial
+	 * 		if not null, the remainder of the partial download is requested; if the server does not
+	 * 		serve the requested range, the file is requested once more, completely
+	 */
+	private Download get(final String url, final PartialDownload partial) throws ClientProtocolException, IOException {
+		final HttpGet get = new HttpGet(url);
+		final boolean range = partial != null && partial.length > 0;
+		if (range) {
+			get.setHeader(HttpHeaders.RANGE, "bytes=" + partial.length + "-");
+			if (partial.validator != null)
+				get.setHeader(HttpHeaders.IF_RANGE, partial.validator);
+		}
 		final CloseableHttpResponse resp = client.execute(get);
-		if (resp.getStatusLine().getStatusCode() / 100 != 2) {
+		final int status = resp.getStatusLine().getStatusCode();
+		if (status == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE && range) {
+			closeSmoothly(resp);
+			return get(url, null);
+		}
+		if (status / 100 != 2) {
 			closeSmoothly(resp);
-			return null;
+			if (status == HttpStatus.SC_NOT_FOUND || status == HttpStatus.SC_GONE)
+				return null;
+			throw new IOException("Unexpected response status " + status + " for " + get.getURI());
+		}
+		long offset = 0;
+		if (status == HttpStatus.SC_PARTIAL_CONTENT) {
+			offset = getRangeStart(resp);
+			if (!range) {
+				// a range starting at 0 is accepted as the complete file
+				if (offset != 0) {
+					closeSmoothly(resp);
+					throw new IOException("Unexpected partial content " + resp.getFirstHeader(HttpHeaders.CONTENT_RANGE) 
+							+ " for " + get.getURI() + ", no range requested");
+				}
+			} else if (offset != partial.length) {
+				closeSmoothly(resp);
+				return get(url, null);
+			}
+		}
+		return new Download(resp.getEntity().getContent(), resp, offset, getValidator(resp));
+	}
+
+	/**
+	 * @return
+	 * 		the first byte position of a Content-Range header, or -1
+	 */
+	private static long getRangeStart(final HttpResponse resp) {
+		final Header header = resp.getFirstHeader(HttpHeaders.CONTENT_RANGE);
+		if (header == null)
+			return -1;
+		final String value = header.getValue().trim();
+		if (!value.startsWith("bytes "))
+			return -1;
+		final int idx = value.indexOf('-');
+		if (idx < 0)
+			return -1;
+		try {
+			return Long.parseLong(value.substring("bytes ".length(), idx).trim());
+		} catch (NumberFormatException e) {
+			return -1;
 		}
-		return new InnerInputStream(resp.getEntity().getContent(), resp);
+	}
+
+	/**
+	 * @return
+	 * 		a strong ETag, or else the Last-Modified date; null if neither is available
+	 */
+	private static String getValidator(final HttpResponse resp) {
+		final Header etag = resp.getFirstHeader(HttpHeaders.ETAG);
+		if (etag != null && !etag.getValue().startsWith("W/"))
+			return etag.getValue();
+		final Header lastModified = resp.getFirstHeader(HttpHeaders.LAST_MODIFIED);
+		return lastModified != null ? lastModified.getValue() : null;
 	}
 	
-	static void closeSmoothly(final Closeable stream) {
+	/**
+	 * Downloads a checksum file completely, so that the connection is released immediately.
+	 * @param baseUrl
+	 * @param artifact
+	 * @param checksumAlgo
+	 * @return
+	 * 		the lower case hex checksum, or null if the checksum file does not exist or is invalid
+	 * @throws IOException
+	 */
+	String downloadChecksum(final String baseUrl, final MavenArtifact artifact, String checksumAlgo) throws IOException {
+		return downloadChecksum(baseUrl, artifact, "jar", checksumAlgo);
+	}
+
+	/**
+	 * Like {@link #downloadChecksum(String, MavenArtifact, String)}, for a file other than the jar.
+	 */
+	String downloadChecksum(final String baseUrl, final MavenArtifact artifact, final String extension, String checksumAlgo) throws IOException {
+		try (final InputStream in = get(getUrl(baseUrl, artifact, extension, checksumAlgo), null)) {
+			if (in == null)
+				return null;
+			return Checksums.parseChecksum(toString(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))));
+		}
+	}
+
+	/**
+	 * @return
+	 * 		the content, or null if it exceeds 1000 characters
+	 */
+	private static String toString(final BufferedReader reader) throws IOException {
+		final char[] buff = new char[124];
+		final StringBuilder sb = new StringBuilder();
+		int read;
+		while((read = reader.read(buff)) != -1) {
+			sb.append(buff, 0, read);
+			if (sb.length() > 1000)
+				return null;
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Closes all connections; the client must not be used afterwards.
+	 */
+	void close() {
+		closeSmoothly(client);
+	}
+
+	static void closeSmoothly(final AutoCloseable stream) {
 		if (stream == null)
 			return;
 		try {
@@ -65,13 +321,47 @@ class Client {
 		} catch (Exception ignore) {}
 	}
 
-	private static class InnerInputStream extends BufferedInputStream {
+	/**
+	 * Uses the keep-alive duration announced by the server, but at most the configured one.
+	 */
+	private static class KeepAliveStrategy implements ConnectionKeepAliveStrategy {
+
+		private final long maxKeepAlive;
+
+		KeepAliveStrategy(long maxKeepAlive) {
+			this.maxKeepAlive = maxKeepAlive;
+		}
+
+		@Override
+		public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+			final long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+			if (duration <= 0)
+				return maxKeepAlive;
+			return maxKeepAlive > 0 ? Math.min(duration, maxKeepAlive) : duration;
+		}
+
+	}
+
+	static class Download extends BufferedInputStream {
 
 		private final Closeable closeable;
+		// position of the first byte of the stream within the file; > 0 for a resumed download
+		final long offset;
+		// may be null
+		final String validator;
+		// true if the response to a conditional request signals that the cached copy is still valid
+		final boolean notModified;
+
+		Download(InputStream stream, Closeable closeable, long offset, String validator) {
+			this(stream, closeable, offset, validator, false);
+		}
 
-		InnerInputStream(InputStream stream, Closeable closeable) {
+		Download(InputStream stream, Closeable closeable, long offset, String validator, boolean notModified) {
 			super(stream);
 			this.closeable = closeable;
+			this.offset = offset;
+			this.validator = validator;
+			this.notModified = notModified;
 		}
 
 		@Override
@@ -0,0 +1,134 @@
+/**
+ * Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.drivers.maven.resolver.impl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.osgi.framework.BundleContext;
+
+/**
+ * The parsed configuration of the last clean start, stored in the state folder, so that unchanged 
+ * config files need not be parsed again. The cache is keyed by the hash of the config files, 
+ * see {@link ConfigParser#hash(List)}.<br>
+ * File format: one tab-separated entry per line; <code>config &lt;hash&gt;</code>, 
+ * <code>delete &lt;path&gt;</code>, or 
+ * <code>bundle &lt;startLevel&gt; &lt;start&gt; &lt;transitive&gt; &lt;groupId&gt; &lt;artifactId&gt; &lt;version&gt; &lt;exclusions&gt;</code>,
+ * where transitive is "-" if not set, and exclusions is a comma-separated list, or "-" if empty.
+ */
+class ConfigCache {
+
+	private final static String NONE = "-";
+
+	private ConfigCache() {}
+
+	static Path getFile(final BundleContext ctx) {
+		return Properties.getStateDir(ctx).resolve("config.cache");
+	}
+
+	/**
+	 * @param file
+	 * @param hash
+	 * @return
+	 * 		the cached configuration, or null if the file does not exist, cannot be read, or has been
+	 * 		created for a different configuration
+	 */
+	static ConfigFile read(final Path file, final String hash) {
+		if (!Files.isRegularFile(file))
+			return null;
+		final List<MavenArtifact> artifacts = new ArrayList<>();
+		final List<String> deleteFiles = new ArrayList<>();
+		try (final BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line = reader.readLine();
+			if (line == null || !line.equals("config\t" + hash))
+				return null;
+			while ((line = reader.readLine()) != null) {
+				final String[] cmp = line.split("\t", -1);
+				switch (cmp[0]) {
+				case "delete":
+					deleteFiles.add(cmp[1]);
+					break;
+				case "bundle":
+					artifacts.add(new MavenArtifact(cmp[4], cmp[5], cmp[6], Integer.parseInt(cmp[1]), Boolean.parseBoolean(cmp[2]),
+							NONE.equals(cmp[3]) ? null : Boolean.valueOf(cmp[3]),
+							NONE.equals(cmp[7]) ? Collections.<String> emptyList() : Arrays.asList(cmp[7].split(","))));
+					break;
+				default:
+					throw new IOException("Invalid line " + line);
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			MavenResolver.warn("Failed to read configuration cache " + file, e);
+			return null;
+		}
+		return new ConfigFile(artifacts, deleteFiles);
+	}
+
+	/**
+	 * Configurations containing values that cannot be represented in the file format, such as tabs, 
+	 * are not cached.
+	 * @param file
+	 * @param hash
+	 * @param cfg
+	 * @throws IOException
+	 */
+	static void write(final Path file, final String hash, final ConfigFile cfg) throws IOException {
+		final StringBuilder sb = new StringBuilder();
+		sb.append("config\t").append(hash).append('\n');
+		for (Path p : cfg.getDeleteFiles()) {
+			if (!append(sb.append("delete\t"), p.toString()))
+				return;
+			sb.append('\n');
+		}
+		for (MavenArtifact a : cfg.getArtifacts()) {
+			sb.append("bundle\t").append(a.getStartLevel()).append('\t').append(a.isDoStart()).append('\t')
+				.append(a.getTransitive() == null ? NONE : a.getTransitive().toString()).append('\t');
+			if (!append(sb, a.getGroupId()) || !append(sb.append('\t'), a.getArtifactId()) || !append(sb.append('\t'), a.getVersion()))
+				return;
+			sb.append('\t');
+			if (a.getExclusions().isEmpty())
+				sb.append(NONE);
+			for (int i = 0; i < a.getExclusions().size(); i++) {
+				final String exclusion = a.getExclusions().get(i);
+				if (exclusion.indexOf(',') >= 0 || !append(sb.append(i > 0 ? "," : ""), exclusion))
+					return;
+			}
+			sb.append('\n');
+		}
+		final Path parent = file.toAbsolutePath().getParent();
+		Files.createDirectories(parent);
+		LocalMavenRepo.writeAtomically(file, sb.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @return
+	 * 		false if the value cannot be stored
+	 */
+	private static boolean append(final StringBuilder sb, final String value) {
+		if (value.isEmpty() || value.equals(NONE) || value.indexOf('\t') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0)
+			return false;
+		sb.append(value);
+		return true;
+	}
+
+}
@@ -17,26 +17,71 @@ package org.smartrplace.drivers.maven.resolver.impl;
 
 import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.List;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.osgi.framework.BundleContext;
-import org.w3c.dom.Document;
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
 
+/**
+ * Parses the config.xml files with a streaming parser. Entities declared in the document type 
+ * declaration are expanded. 
+ */
 class ConfigParser {
 
-	static ConfigFile parse(final BundleContext ctx) throws ParserConfigurationException, IOException, SAXException {
+	private final static XMLInputFactory FACTORY;
+
+	static {
+		FACTORY = XMLInputFactory.newInstance();
+		FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, true);
+		FACTORY.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, true);
+		FACTORY.setProperty(XMLInputFactory.IS_COALESCING, true);
+	}
+
+	static ConfigFile parse(final BundleContext ctx) throws IOException {
+		final List<Path> paths = getConfigFiles(ctx);
+		return parse(ctx, paths, hash(paths));
+	}
+
+	/**
+	 * Returns the parsed configuration from the cache in the state folder, if it has been created
+	 * for the same config files, or else parses the files and updates the cache.
+	 * @param ctx
+	 * @param paths
+	 * @param hash
+	 * 		the hash of the config files, see {@link #hash(List)}
+	 * @return
+	 * @throws IOException
+	 */
+	static ConfigFile parse(final BundleContext ctx, final List<Path> paths, final String hash) throws IOException {
+		final Path cacheFile = ConfigCache.getFile(ctx);
+		final ConfigFile cached = ConfigCache.read(cacheFile, hash);
+		if (cached != null) {
+			MavenResolver.debug("Using cached configuration {}", cacheFile);
+			return cached;
+		}
+		final ConfigFile cfg = parse(paths);
+		try {
+			ConfigCache.write(cacheFile, hash, cfg);
+		} catch (IOException e) {
+			MavenResolver.warn("Failed to write configuration cache " + cacheFile, e);
+		}
+		return cfg;
+	}
+
+	static List<Path> getConfigFiles(final BundleContext ctx) {
 		final String path0 = ctx.getProperty(Properties.CONFIG_FILE_PROPERTY);
 		final List<Path> paths = new ArrayList<>();
 		if (path0 != null) {
@@ -58,86 +103,155 @@ class ConfigParser {
 			if (Files.isRegularFile(def))
 				paths.add(def);
 		}
+		return paths;
+	}
+
+	static ConfigFile parse(final List<Path> paths) throws IOException {
 		final List<ConfigFile> files = new ArrayList<>(paths.size());
 		for (Path p : paths) {
 			files.add(parseFile(p));
 		}
 		return ConfigFile.merge(files);
 	}
-	
-	private static ConfigFile parseFile(final Path path) throws ParserConfigurationException, IOException, SAXException {
-		final List<MavenArtifact> artifacts = new ArrayList<>();
-		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-		DocumentBuilder builder = factory.newDocumentBuilder();
-		Document document;
-		try (BufferedInputStream bis = new BufferedInputStream(Files.newInputStream(path))) {
-			document = builder.parse(bis);
-			Node configuration = getUniqueSubnode(document, "configuration");
-			Node bundles = getUniqueSubnode(configuration, "bundles");
-			NodeList nl = bundles.getChildNodes();
-			for (int i=0;i<nl.getLength();i++) {
-				Node node = nl.item(i);
-				if (node.getNodeType() != Node.ELEMENT_NODE || !"bundle".equals(node.getNodeName()))
-					continue;
-				NamedNodeMap attributes = node.getAttributes();
-				if (attributes == null)
-					continue;
-				final Node groupNode = attributes.getNamedItem("groupId");
-				final Node artifactNode = attributes.getNamedItem("artifactId");
-				final Node versionNode = attributes.getNamedItem("version");
-				if (groupNode == null || artifactNode == null || versionNode == null)
-					continue;
-				final Node startLevelNode = attributes.getNamedItem("startLevel");
-				final int startLevel =  getStartLevel(startLevelNode);
-				final Node startNode = attributes.getNamedItem("start");
-				final boolean doStart = doStart(startNode);
-				final MavenArtifact artifact = new MavenArtifact(
-						groupNode.getTextContent(),
-						artifactNode.getTextContent(),
-						versionNode.getTextContent(),
-						startLevel,
-						doStart);
-				artifacts.add(artifact);
+
+	private static ConfigFile parseFile(final Path path) throws IOException {
+		try (final InputStream in = new BufferedInputStream(Files.newInputStream(path))) {
+			final XMLStreamReader reader;
+			synchronized (FACTORY) {
+				reader = FACTORY.createXMLStreamReader(path.toUri().toString(), in);
+			}
+			try {
+				return parse(reader);
+			} finally {
+				reader.close();
 			}
-			final Node deleteNode = getUniqueSubnode(configuration, "deleteList");
-			final List<String> deleteList;
-			if (deleteNode == null)
-				deleteList = null;
-			else {
+		} catch (XMLStreamException e) {
+			throw new IOException("Failed to parse config file " + path, e);
+		}
+	}
+
+	/**
+	 * Only the first bundles and deleteList elements of the configuration are evaluated.
+	 */
+	private static ConfigFile parse(final XMLStreamReader reader) throws XMLStreamException, IOException {
+		if (nextElement(reader) != XMLStreamConstants.START_ELEMENT || !"configuration".equals(reader.getLocalName()))
+			throw new IOException("Not a configuration file, configuration element missing");
+		final List<MavenArtifact> artifacts = new ArrayList<>();
+		List<String> deleteList = null;
+		boolean bundlesFound = false;
+		while (nextElement(reader) == XMLStreamConstants.START_ELEMENT) {
+			final String name = reader.getLocalName();
+			if ("bundles".equals(name) && !bundlesFound) {
+				bundlesFound = true;
+				while (nextElement(reader) == XMLStreamConstants.START_ELEMENT) {
+					if ("bundle".equals(reader.getLocalName())) {
+						final MavenArtifact artifact = parseBundle(reader);
+						if (artifact != null)
+							artifacts.add(artifact);
+					} else {
+						skip(reader);
+					}
+				}
+			} else if ("deleteList".equals(name) && deleteList == null) {
 				deleteList = new ArrayList<>();
-				final NodeList nl2 = deleteNode.getChildNodes();
-				for (int i=0;i<nl2.getLength();i++) {
-					Node node = nl2.item(i);
-					if (node.getNodeType() != Node.ELEMENT_NODE || !"file".equals(node.getNodeName()))
-						continue;
-					String text = node.getTextContent();
-					if (text == null)
-						continue;
-					text = text.trim();
-					if (text.isEmpty())
+				while (nextElement(reader) == XMLStreamConstants.START_ELEMENT) {
+					if (!"file".equals(reader.getLocalName())) {
+						skip(reader);
 						continue;
-					deleteList.add(text);
+					}
+					final String text = reader.getElementText().trim();
+					if (!text.isEmpty())
+						deleteList.add(text);
 				}
+			} else {
+				skip(reader);
 			}
-			return new ConfigFile(artifacts, deleteList);
 		}
+		return new ConfigFile(artifacts, deleteList);
 	}
 
-	private static boolean doStart(final Node startNode) {
-		if (startNode == null)
-			return true;
-		final String text = startNode.getTextContent();
-		try {
-			return Boolean.parseBoolean(text);
-		} catch (Exception e) {
-			return true;
+	/**
+	 * @param reader
+	 * 		positioned at the start of a bundle element; on return positioned at its end
+	 * @return
+	 * 		null if a mandatory attribute is missing
+	 */
+	private static MavenArtifact parseBundle(final XMLStreamReader reader) throws XMLStreamException {
+		final String groupId = reader.getAttributeValue(null, "groupId");
+		final String artifactId = reader.getAttributeValue(null, "artifactId");
+		final String version = reader.getAttributeValue(null, "version");
+		final int startLevel = getStartLevel(reader.getAttributeValue(null, "startLevel"));
+		final boolean doStart = doStart(reader.getAttributeValue(null, "start"));
+		final String transitive0 = reader.getAttributeValue(null, "transitive");
+		final Boolean transitive = transitive0 == null ? null : Boolean.valueOf(transitive0.trim());
+		final List<String> exclusions = new ArrayList<>();
+		while (nextElement(reader) == XMLStreamConstants.START_ELEMENT) {
+			if ("exclusion".equals(reader.getLocalName())) {
+				final String g = reader.getAttributeValue(null, "groupId");
+				final String a = reader.getAttributeValue(null, "artifactId");
+				exclusions.add((g == null ? "*" : g.trim()) + ":" + (a == null ? "*" : a.trim()));
+			}
+			skip(reader);
+		}
+		if (groupId == null || artifactId == null || version == null)
+			return null;
+		return new MavenArtifact(groupId, artifactId, version, startLevel, doStart, transitive, exclusions);
+	}
+
+	/**
+	 * Advances to the next start or end element, skipping text, comments and the document type declaration.
+	 * @return
+	 * 		the event type, START_ELEMENT or END_ELEMENT; END_DOCUMENT if no further element exists 
+	 */
+	private static int nextElement(final XMLStreamReader reader) throws XMLStreamException {
+		while (reader.hasNext()) {
+			final int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT || event == XMLStreamConstants.END_ELEMENT)
+				return event;
+		}
+		return XMLStreamConstants.END_DOCUMENT;
+	}
+
+	/**
+	 * Skips the current element, including its children.
+	 */
+	private static void skip(final XMLStreamReader reader) throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			final int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT)
+				depth++;
+			else if (event == XMLStreamConstants.END_ELEMENT)
+				depth--;
+		}
+	}
+
+	/**
+	 * @param paths
+	 * @return
+	 * 		a sha1 hex hash over the paths and contents of all config files
+	 * @throws IOException
+	 */
+	static String hash(final List<Path> paths) throws IOException {
+		final MessageDigest digest = DigestUtils.getSha1Digest();
+		for (Path p : paths) {
+			digest.update(p.toString().getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+			digest.update(Files.readAllBytes(p));
+			digest.update((byte) 0);
 		}
+		return Hex.encodeHexString(digest.digest());
 	}
 
-	private static int getStartLevel(final Node startLevelNode) {
-		if (startLevelNode == null)
+	private static boolean doStart(final String text) {
+		if (text == null)
+			return true;
+		return Boolean.parseBoolean(text);
+	}
+
+	private static int getStartLevel(final String text) {
+		if (text == null)
 			return 4; // TODO configurable
-		final String text = startLevelNode.getTextContent();
 		try {
 			return Integer.parseInt(text);
 		} catch (Exception e) {
@@ -145,15 +259,4 @@ class ConfigParser {
 		}
  	}
 
-	private static Node getUniqueSubnode(Node parent, String nodeType) {
-		NodeList nl = parent.getChildNodes();
-		for (int i=0;i<nl.getLength();i++) {
-			Node sub = nl.item(i);
-			if (sub.getNodeType() != Node.ELEMENT_NODE || !nodeType.equals(sub.getNodeName()))
-				continue;
-			return sub;
-		}
-		return null;
-	}
-
 }
@@ -0,0 +1,428 @@
+/**
+ * Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.drivers.maven.resolver.impl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.osgi.framework.BundleContext;
+import org.smartrplace.drivers.maven.resolver.impl.Pom.Dependency;
+
+/**
+ * Determines the transitive dependencies of the configured artifacts from their poms.
+ * The dependency graph is walked breadth first, with the poms of each level being fetched concurrently,
+ * so that, as in Maven, the version nearest to the configured artifact wins. Artifacts listed in the
+ * configuration always take precedence over transitive dependencies. Poms are stored in the
+ * local repository, and effective poms, including their parents, are cached in memory.
+ */
+class DependencyCollector {
+
+	// maximum depth of the parent hierarchy and of imported boms
+	private final static int MAX_POM_DEPTH = 32;
+	private final ResolverChain chain;
+	private final int parallelism;
+	private final Set<String> scopes;
+	private final boolean transitiveDefault;
+	// coordinates -> effective pom; a null result signals a missing pom
+	private final ConcurrentMap<String, PomTask> models = new ConcurrentHashMap<>();
+	// guards PomTask.waitingFor
+	private final Object waits = new Object();
+
+	DependencyCollector(ResolverChain chain, BundleContext ctx) {
+		this.chain = chain;
+		this.parallelism = Properties.getInt(ctx, Properties.PARALLELISM_PROPERTY, Properties.PARALLELISM_DEFAULT);
+		this.transitiveDefault = Properties.getBoolean(ctx, Properties.TRANSITIVE_PROPERTY, false);
+		String scopes0 = ctx.getProperty(Properties.TRANSITIVE_SCOPES_PROPERTY);
+		if (scopes0 == null)
+			scopes0 = Properties.TRANSITIVE_SCOPES_DEFAULT;
+		this.scopes = new HashSet<>();
+		for (String scope : scopes0.split(",")) {
+			scope = scope.trim();
+			if (!scope.isEmpty())
+				scopes.add(scope);
+		}
+	}
+
+	/**
+	 * @param ctx
+	 * @param artifacts
+	 * @return
+	 * 		true if the dependencies of any of the artifacts shall be resolved
+	 */
+	static boolean isRequested(final BundleContext ctx, final Collection<MavenArtifact> artifacts) {
+		final boolean transitiveDefault = Properties.getBoolean(ctx, Properties.TRANSITIVE_PROPERTY, false);
+		for (MavenArtifact a : artifacts) {
+			if (a.isTransitive(transitiveDefault))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @param artifacts
+	 * 		the configured artifacts
+	 * @return
+	 * 		the configured artifacts, followed by their transitive dependencies. Dependencies inherit
+	 * 		start level and start flag from the configured artifact they have been reached from.
+	 * @throws IOException
+	 */
+	List<MavenArtifact> collect(final Collection<MavenArtifact> artifacts) throws IOException {
+		// groupId:artifactId -> selected artifact
+		final Map<String, MavenArtifact> selected = new HashMap<>();
+		List<Node> level = new ArrayList<>();
+		for (MavenArtifact a : artifacts) {
+			final String key = a.getGroupId() + ":" + a.getArtifactId();
+			if (selected.containsKey(key))
+				continue;
+			selected.put(key, a);
+			if (a.isTransitive(transitiveDefault))
+				level.add(new Node(a, a, "compile", new HashSet<>(a.getExclusions()), null));
+		}
+		final List<MavenArtifact> result = new ArrayList<>(artifacts);
+		final ExecutorService exec = ResolverExecutors.newPool("maven-resolver-poms", parallelism);
+		try {
+			while (!level.isEmpty()) {
+				final List<Future<Model>> futures = new ArrayList<>(level.size());
+				for (final Node node : level) {
+					futures.add(exec.submit(new Callable<Model>() {
+
+						@Override
+						public Model call() throws Exception {
+							return model(node.artifact, Collections.<String> emptySet());
+						}
+					}));
+				}
+				final List<Node> next = new ArrayList<>();
+				for (int i = 0; i < level.size(); i++) {
+					final Node node = level.get(i);
+					final Model model = get(futures.get(i), node.artifact);
+					if (model == null)
+						continue;
+					// the dependency management of the configured artifact applies to all its transitive dependencies
+					final Map<String, Dependency> managed = node.managed != null ? node.managed : model.managed;
+					for (Dependency d : model.dependencies) {
+						final MavenArtifact artifact = select(node, d, managed, selected);
+						if (artifact == null)
+							continue;
+						final Set<String> exclusions = new HashSet<>(node.exclusions);
+						exclusions.addAll(d.exclusions);
+						next.add(new Node(artifact, node.root, getScope(node.scope, d.scope), exclusions, managed));
+						result.add(artifact);
+					}
+				}
+				level = next;
+			}
+		} finally {
+			exec.shutdownNow();
+		}
+		MavenResolver.debug("Resolved {} transitive dependencies", result.size() - artifacts.size());
+		return result;
+	}
+
+	/**
+	 * @return
+	 * 		the artifact for the dependency, or null if it is filtered out or already selected
+	 */
+	private MavenArtifact select(final Node node, final Dependency d, final Map<String, Dependency> managed,
+			final Map<String, MavenArtifact> selected) {
+		if (d.optional || d.classifier != null || (d.type != null && !"jar".equals(d.type) && !"bundle".equals(d.type)))
+			return null;
+		final String scope = getScope(node.scope, d.scope);
+		if (scope == null || !scopes.contains(scope))
+			return null;
+		final String key = d.groupId + ":" + d.artifactId;
+		if (selected.containsKey(key) || isExcluded(node.exclusions, d))
+			return null;
+		final Dependency m = managed.get(d.getKey());
+		final String version = m != null && m.version != null ? m.version : d.version;
+		if (version == null || version.indexOf("${") >= 0) {
+			MavenResolver.warn("Cannot determine version of dependency " + key + " of " + node.artifact);
+			return null;
+		}
+		final MavenArtifact artifact = new MavenArtifact(d.groupId, d.artifactId, version, node.root.getStartLevel(), node.root.isDoStart());
+		selected.put(key, artifact);
+		return artifact;
+	}
+
+	private static boolean isExcluded(final Set<String> exclusions, final Dependency d) {
+		for (String e : exclusions) {
+			final int idx = e.indexOf(':');
+			final String g = idx < 0 ? e : e.substring(0, idx);
+			final String a = idx < 0 ? "*" : e.substring(idx + 1);
+			if (("*".equals(g) || g.equals(d.groupId)) && ("*".equals(a) || a.equals(d.artifactId)))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Maven scope propagation: provided and test dependencies are not transitive, and compile
+	 * dependencies of runtime dependencies become runtime dependencies.
+	 * @return
+	 * 		null if the dependency is not transitive
+	 */
+	private static String getScope(final String parentScope, String scope) {
+		if (scope == null)
+			scope = "compile";
+		switch (scope) {
+		case "compile":
+			return parentScope;
+		case "runtime":
+			return "runtime";
+		default:
+			return null;
+		}
+	}
+
+	private static Model get(final Future<Model> future, final MavenArtifact artifact) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while resolving dependencies of " + artifact);
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException && ResolverChain.isInterrupt((IOException) cause))
+				throw (IOException) cause;
+			MavenResolver.warn("Failed to resolve dependencies of " + artifact, cause);
+			return null;
+		}
+	}
+
+	/**
+	 * Concurrent requests for the same pom share a single task. Before waiting for a task running on 
+	 * another thread, the chain of tasks that one is waiting for is checked, so that cyclic parents or 
+	 * imports loaded by several threads fail as well, instead of blocking each other.
+	 * @param artifact
+	 * @param loading
+	 * 		coordinates of the poms currently being loaded on this thread, which refer to this 
+	 * 		one as parent or imported bom 
+	 * @return
+	 * 		the effective pom, or null if the pom is not available
+	 * @throws IOException if the parent or import hierarchy is cyclic or too deep
+	 */
+	private Model model(final MavenArtifact artifact, final Set<String> loading) throws IOException {
+		final String key = artifact.getCoordinates();
+		// waiting for the task of a pom further up the hierarchy would block forever
+		if (loading.contains(key))
+			throw new IOException("Cyclic parent/import of pom " + artifact + ": " + loading);
+		if (loading.size() >= MAX_POM_DEPTH)
+			throw new IOException("Pom hierarchy too deep at " + artifact);
+		final Set<String> path = new LinkedHashSet<>(loading);
+		path.add(key);
+		final PomTask task = new PomTask(new Callable<Model>() {
+
+			@Override
+			public Model call() throws Exception {
+				return load(artifact, path);
+			}
+		});
+		PomTask existing = models.putIfAbsent(key, task);
+		if (existing == null) {
+			existing = task;
+			task.run();
+		}
+		// the task run by this thread, if this pom is the parent or an import of another one
+		final PomTask current = existing.isDone() ? null : current(loading);
+		if (current != null) {
+			synchronized (waits) {
+				for (PomTask t = existing; t != null; t = t.waitingFor) {
+					if (t == current)
+						throw new IOException("Cyclic parent/import of pom " + artifact + ", loaded concurrently: " + loading);
+				}
+				current.waitingFor = existing;
+			}
+		}
+		try {
+			return existing.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while loading pom of " + artifact);
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new IOException(cause);
+		} finally {
+			if (current != null) {
+				synchronized (waits) {
+					current.waitingFor = null;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return
+	 * 		the task of the innermost pom being loaded on this thread, or null
+	 */
+	private PomTask current(final Set<String> loading) {
+		String last = null;
+		for (String key : loading) {
+			last = key;
+		}
+		return last == null ? null : models.get(last);
+	}
+
+	/**
+	 * @param loading
+	 * 		coordinates of the poms currently being loaded on this thread, including this one
+	 */
+	private Model load(final MavenArtifact artifact, final Set<String> loading) throws IOException {
+		final MavenArtifact concrete = chain.resolveVersion(artifact);
+		if (concrete == null)
+			return null;
+		final Path file = chain.resolvePom(concrete);
+		if (file == null) {
+			MavenResolver.warn("No pom found for " + artifact + ", its dependencies are not resolved");
+			return null;
+		}
+		final Pom pom = Pom.parse(file);
+		final Model parent = pom.parent != null ? model(pom.parent, loading) : null;
+		if (pom.parent != null && parent == null)
+			throw new IOException("Parent pom " + pom.parent + " of " + artifact + " not found");
+		// inheritance
+		final Map<String, String> properties = new HashMap<>();
+		final Map<String, Dependency> rawManaged;
+		final Map<String, Dependency> rawDependencies;
+		if (parent != null) {
+			properties.putAll(parent.pom.properties);
+			rawManaged = Pom.byKey(parent.pom.dependencyManagement);
+			rawDependencies = Pom.byKey(parent.pom.dependencies);
+		} else {
+			rawManaged = new LinkedHashMap<>();
+			rawDependencies = new LinkedHashMap<>();
+		}
+		properties.putAll(pom.properties);
+		rawManaged.putAll(Pom.byKey(pom.dependencyManagement));
+		rawDependencies.putAll(Pom.byKey(pom.dependencies));
+		for (String prefix : Arrays.asList("project.", "pom.", "")) {
+			properties.put(prefix + "groupId", pom.groupId);
+			properties.put(prefix + "artifactId", pom.artifactId);
+			properties.put(prefix + "version", pom.version);
+		}
+		if (pom.parent != null) {
+			properties.put("project.parent.groupId", pom.parent.getGroupId());
+			properties.put("project.parent.version", pom.parent.getVersion());
+		}
+		final Pom merged = new Pom(pom.groupId, pom.artifactId, pom.version, pom.parent, properties,
+				new ArrayList<>(rawManaged.values()), new ArrayList<>(rawDependencies.values()));
+		// interpolation and imported boms
+		final Map<String, Dependency> managed = new LinkedHashMap<>();
+		final List<Dependency> imports = new ArrayList<>();
+		for (Dependency d : rawManaged.values()) {
+			final Dependency resolved = d.resolve(properties, null);
+			if ("import".equals(resolved.scope) && "pom".equals(resolved.type))
+				imports.add(resolved);
+			else
+				managed.put(resolved.getKey(), resolved);
+		}
+		for (Dependency bom : imports) {
+			final Model imported = model(new MavenArtifact(bom.groupId, bom.artifactId, bom.version, 4, true), loading);
+			if (imported == null)
+				continue;
+			for (Map.Entry<String, Dependency> entry : imported.managed.entrySet()) {
+				if (!managed.containsKey(entry.getKey()))
+					managed.put(entry.getKey(), entry.getValue());
+			}
+		}
+		final List<Dependency> dependencies = new ArrayList<>(rawDependencies.size());
+		for (Dependency d : rawDependencies.values()) {
+			final Dependency interpolated = d.resolve(properties, null);
+			dependencies.add(d.resolve(properties, managed.get(interpolated.getKey())));
+		}
+		return new Model(merged, Collections.unmodifiableMap(managed), Collections.unmodifiableList(dependencies));
+	}
+
+	/**
+	 * An effective pom
+	 */
+	private static class Model {
+
+		// inherited, but not interpolated
+		final Pom pom;
+		// interpolated, including imported boms
+		final Map<String, Dependency> managed;
+		// interpolated, with managed versions and scopes applied
+		final List<Dependency> dependencies;
+
+		Model(Pom pom, Map<String, Dependency> managed, List<Dependency> dependencies) {
+			this.pom = pom;
+			this.managed = managed;
+			this.dependencies = dependencies;
+		}
+
+	}
+
+	/**
+	 * A node in the dependency graph.
+	 */
+	private static class Node {
+
+		final MavenArtifact artifact;
+		// the configured artifact
+		final MavenArtifact root;
+		final String scope;
+		final Set<String> exclusions;
+		// dependency management of the configured artifact; null for the configured artifact itself
+		final Map<String, Dependency> managed;
+
+		Node(MavenArtifact artifact, MavenArtifact root, String scope, Set<String> exclusions, Map<String, Dependency> managed) {
+			this.artifact = artifact;
+			this.root = root;
+			this.scope = scope;
+			this.exclusions = exclusions;
+			this.managed = managed;
+		}
+
+	}
+
+	/**
+	 * Loads an effective pom. 
+	 */
+	private static class PomTask extends FutureTask<Model> {
+
+		// guarded by DependencyCollector.waits; the task of another thread this one is waiting for
+		PomTask waitingFor;
+
+		PomTask(Callable<Model> loader) {
+			super(loader);
+		}
+
+	}
+
+}
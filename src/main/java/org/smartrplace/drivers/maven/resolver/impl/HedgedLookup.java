@@ -0,0 +1,167 @@
+/**
+ * Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.drivers.maven.resolver.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queries a list of repositories concurrently. The first repository is asked immediately,
+ * every further one either after the hedge delay has elapsed or as soon as all
+ * previous requests have failed, whichever happens first. With a delay of 0
+ * all repositories are queried at once. The first successful response wins, 
+ * all others are cancelled resp. closed.
+ */
+class HedgedLookup {
+
+	private final ExecutorService exec;
+	private final long delay;
+
+	/**
+	 * @param exec
+	 * @param delay
+	 * 		hedge delay in ms; 0: query all repositories at once
+	 */
+	HedgedLookup(ExecutorService exec, long delay) {
+		this.exec = exec;
+		this.delay = delay;
+	}
+
+	/**
+	 * @param repos
+	 * @param artifact
+	 * @param partial
+	 * 		a partial download to be resumed; may be null
+	 * @return
+	 * 		the result of the first repository that provides the artifact, or null
+	 * @throws InterruptedException
+	 */
+	ResolutionResult resolve(final List<RemoteRepository> repos, final MavenArtifact artifact, final PartialDownload partial) throws InterruptedException {
+		final Race race = new Race();
+		final CompletionService<Boolean> cs = new ExecutorCompletionService<>(exec);
+		final List<Future<Boolean>> futures = new ArrayList<>(repos.size());
+		int next = 0;
+		int pending = 0;
+		try {
+			while (next < repos.size() || pending > 0) {
+				if (next < repos.size() && (pending == 0 || delay == 0)) {
+					futures.add(cs.submit(new Attempt(repos.get(next++), artifact, partial, race)));
+					pending++;
+					continue;
+				}
+				final Future<Boolean> f = next < repos.size() ? cs.poll(delay, TimeUnit.MILLISECONDS) : cs.take();
+				if (f == null) { // hedge delay elapsed
+					futures.add(cs.submit(new Attempt(repos.get(next++), artifact, partial, race)));
+					pending++;
+					continue;
+				}
+				pending--;
+				if (succeeded(f))
+					return race.claim();
+			}
+			return null;
+		} finally {
+			Client.closeSmoothly(race.close());
+			for (Future<Boolean> f : futures) {
+				f.cancel(true);
+			}
+		}
+	}
+
+	private static boolean succeeded(final Future<Boolean> f) throws InterruptedException {
+		try {
+			return f.get();
+		} catch (ExecutionException e) {
+			return false;
+		}
+	}
+
+	private static class Attempt implements Callable<Boolean> {
+
+		private final RemoteRepository repo;
+		private final MavenArtifact artifact;
+		private final PartialDownload partial;
+		private final Race race;
+
+		Attempt(RemoteRepository repo, MavenArtifact artifact, PartialDownload partial, Race race) {
+			this.repo = repo;
+			this.artifact = artifact;
+			this.partial = partial;
+			this.race = race;
+		}
+
+		@Override
+		public Boolean call() {
+			final ResolutionResult result;
+			try {
+				result = repo.resolve(artifact, partial);
+			} catch (IOException e) {
+				MavenResolver.warn("Failed to query " + repo + " for " + artifact + ": " + e);
+				return false;
+			}
+			if (result == null)
+				return false;
+			if (!race.offer(result)) {
+				result.close();
+				return false;
+			}
+			return true;
+		}
+
+	}
+
+	/**
+	 * Hands over the winning result; results offered after the race has been closed
+	 * are rejected, and must be closed by the caller. 
+	 */
+	private static class Race {
+
+		private ResolutionResult winner;
+		private boolean claimed;
+		private boolean closed;
+
+		synchronized boolean offer(final ResolutionResult result) {
+			if (closed || winner != null)
+				return false;
+			winner = result;
+			return true;
+		}
+
+		synchronized ResolutionResult claim() {
+			claimed = true;
+			return winner;
+		}
+
+		/**
+		 * @return
+		 * 		the winning result if it has not been claimed, or null
+		 */
+		synchronized ResolutionResult close() {
+			closed = true;
+			return claimed ? null : winner;
+		}
+
+	}
+
+}
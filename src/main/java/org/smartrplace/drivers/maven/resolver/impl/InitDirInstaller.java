@@ -0,0 +1,86 @@
+/**
+ * Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.drivers.maven.resolver.impl;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleException;
+
+/**
+ * Installs the jar files from the init folder, one after another in the order in which 
+ * the folder is walked. Each file is streamed to the framework, so that large bundles are 
+ * never held in memory as a whole.
+ */
+class InitDirInstaller {
+
+	private final BundleContext ctx;
+	private final Path initDir;
+
+	InitDirInstaller(BundleContext ctx, Path initDir) {
+		this.ctx = ctx;
+		this.initDir = initDir;
+	}
+
+	/**
+	 * @return
+	 * 		the installed bundles
+	 * @throws IOException
+	 * 		if the init folder cannot be read
+	 */
+	List<Bundle> install() throws IOException {
+		if (!Files.isDirectory(initDir))
+			return new ArrayList<>(0);
+		final List<Path> files = new ArrayList<>();
+		Files.walkFileTree(initDir, new SimpleFileVisitor<Path>() {
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				files.add(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+		});
+		final List<Bundle> bundles = new ArrayList<>(files.size());
+		for (Path file : files) {
+			if (Thread.currentThread().isInterrupted())
+				break;
+			final String location = "file-init:" + initDir.relativize(file).toString();
+			try (final InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+				final Bundle b = ctx.installBundle(location, in);
+				if (b == null)
+					throw new NullPointerException("Newly installed bundle is null: " + file);
+				bundles.add(b);
+			} catch (BundleException e) {
+				MavenResolver.warn("Failed to install bundle " + file);
+			} catch (IOException e) {
+				MavenResolver.warn("Failed to read file " + file, e);
+			}
+		}
+		return bundles;
+	}
+
+}
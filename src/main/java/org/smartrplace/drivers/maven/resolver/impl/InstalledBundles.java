@@ -0,0 +1,131 @@
+/**
+ * Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.drivers.maven.resolver.impl;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The bundles installed by the resolver from the configured artifacts, recorded in the bundle 
+ * data area after each start that changed them. On an unclean start this is compared to the 
+ * current configuration, so that only the differences need to be applied.<br>
+ * File format: one tab-separated entry per line; <code>config &lt;hash&gt;</code> or 
+ * <code>bundle &lt;bundleId&gt; &lt;groupId&gt; &lt;artifactId&gt; &lt;version&gt;</code>, where 
+ * version is the concrete version installed. The config hash is "-" if not all configured 
+ * artifacts could be installed.
+ */
+class InstalledBundles {
+
+	final static String FILE_NAME = "installed-bundles";
+	final static String INCOMPLETE = "-";
+	final String configHash;
+	// groupId:artifactId -> entry
+	final Map<String, Entry> entries;
+
+	InstalledBundles(String configHash, Map<String, Entry> entries) {
+		this.configHash = configHash;
+		this.entries = Collections.unmodifiableMap(new HashMap<>(entries));
+	}
+
+	/**
+	 * @return
+	 * 		null if the file does not exist or cannot be read
+	 */
+	static InstalledBundles read(final Path file) {
+		if (!Files.isRegularFile(file))
+			return null;
+		String configHash = null;
+		final Map<String, Entry> entries = new HashMap<>();
+		try (final BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty() || line.startsWith("#"))
+					continue;
+				final String[] cmp = line.split("\t");
+				switch (cmp[0]) {
+				case "config":
+					configHash = cmp[1];
+					break;
+				case "bundle":
+					final Entry entry = new Entry(Long.parseLong(cmp[1]), cmp[2], cmp[3], cmp[4]);
+					entries.put(entry.getKey(), entry);
+					break;
+				default:
+					throw new IOException("Invalid line " + line);
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			MavenResolver.warn("Failed to read installed bundles file " + file, e);
+			return null;
+		}
+		if (configHash == null)
+			return null;
+		return new InstalledBundles(configHash, entries);
+	}
+
+	void write(final Path file) throws IOException {
+		final Path parent = file.toAbsolutePath().getParent();
+		Files.createDirectories(parent);
+		LocalMavenRepo.writeAtomically(file, new LocalMavenRepo.FileContent() {
+
+			@Override
+			public void write(final BufferedWriter writer) throws IOException {
+				writer.write("config\t" + configHash);
+				writer.newLine();
+				for (Entry e : entries.values()) {
+					writer.write("bundle\t" + e.bundleId + "\t" + e.groupId + "\t" + e.artifactId + "\t" + e.version);
+					writer.newLine();
+				}
+			}
+		});
+	}
+
+	static class Entry {
+
+		final long bundleId;
+		final String groupId;
+		final String artifactId;
+		final String version;
+
+		Entry(long bundleId, String groupId, String artifactId, String version) {
+			this.bundleId = bundleId;
+			this.groupId = groupId;
+			this.artifactId = artifactId;
+			this.version = version;
+		}
+
+		/**
+		 * @return
+		 * 		groupId:artifactId
+		 */
+		String getKey() {
+			return getKey(groupId, artifactId);
+		}
+
+		static String getKey(final String groupId, final String artifactId) {
+			return groupId + ":" + artifactId;
+		}
+
+	}
+
+}
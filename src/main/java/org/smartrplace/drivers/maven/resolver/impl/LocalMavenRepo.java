@@ -15,31 +15,54 @@
  */
 package org.smartrplace.drivers.maven.resolver.impl;
 
-import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
-import java.net.MalformedURLException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.smartrplace.drivers.maven.resolver.impl.checksums.Checksums;
 
 class LocalMavenRepo implements Repository {
 
+	private final static String PART_SUFFIX = ".part";
+	// stores the source repository URL and the validator of a .part file, separated by a tab
+	private final static String VALIDATOR_SUFFIX = ".validator";
+	private final static String INDEX_FILE = "maven-resolver-index";
+	// .part files currently being written to by this JVM
+	private final static Set<Path> activeParts = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
 	final Path homeRepo;
+	private final LocalRepoIndex index;
 
 	LocalMavenRepo() throws IOException {
-		final Path repo;
-		final String m2Home = System.getProperty("MAVEN_HOME");
-		if (m2Home == null)
-			repo = Paths.get(System.getProperty("user.home")).resolve(".m2");
-		else
-			repo = Paths.get(m2Home);
-		homeRepo = repo.resolve("repository");
+		homeRepo = getHome();
 		if (!Files.exists(homeRepo))
 			Files.createDirectories(homeRepo);
+		index = new LocalRepoIndex(homeRepo.resolveSibling(INDEX_FILE), homeRepo);
+	}
+
+	/**
+	 * @return
+	 * 		the location of the local repository, ~/.m2/repository unless the system property MAVEN_HOME is set
+	 */
+	static Path getHome() {
+		final String m2Home = System.getProperty("MAVEN_HOME");
+		final Path repo = m2Home == null ? Paths.get(System.getProperty("user.home")).resolve(".m2") : Paths.get(m2Home);
+		return repo.resolve("repository");
 	}
 
 	@Override
@@ -48,65 +71,332 @@ class LocalMavenRepo implements Repository {
 		return file == null ? null : new ResolutionResult(Files.newInputStream(file));
 	}
 
-	Path resolveFile(MavenArtifact artifact) throws MalformedURLException {
-		Path dir = homeRepo;
-		for (String pckg : artifact.getGroupId().split("\\.")) {
-			if (pckg.isEmpty())
-				continue;
-			dir = dir.resolve(pckg);
+	/**
+	 * For indexed artifacts, only the existence of the file is checked; others are looked up
+	 * in the repository and added to the index if found. Index entries whose file has been
+	 * deleted are removed.
+	 * @param artifact
+	 * @return
+	 * 		the jar file, or null if the artifact is not available locally
+	 */
+	Path resolveFile(MavenArtifact artifact) {
+		final Path indexed = index.get(artifact);
+		if (indexed != null) {
+			if (Files.isRegularFile(indexed))
+				return indexed;
+			MavenResolver.debug("Indexed file {} no longer exists", indexed);
+			index.remove(artifact);
 		}
-		final Path file = dir.resolve(artifact.getArtifactId()).resolve(artifact.getVersion())
-			.resolve(artifact.getArtifactId() + "-" + artifact.getVersion() + ".jar");
-		if (!Files.exists(file))
+		final Path file = artifactDir(artifact).resolve(artifact.getArtifactId() + "-" + artifact.getVersion() + ".jar");
+		try {
+			index.put(artifact, file, readChecksum(file, "sha1"));
+		} catch (NoSuchFileException e) {
 			return null;
+		} catch (IOException e) {
+			if (!Files.exists(file))
+				return null;
+			MavenResolver.warn("Failed to index " + file, e);
+		}
 		return file;
 	}
 
-	void installArtifact(final MavenArtifact artifact, final ResolutionResult result, boolean retry) throws IOException {
+	/**
+	 * @see LocalRepoIndex#verify(MavenArtifact)
+	 */
+	boolean verify(MavenArtifact artifact, boolean full) {
+		return resolveFile(artifact) != null && index.verify(artifact, full);
+	}
+
+	/**
+	 * @param artifact
+	 * @param compute
+	 * 		if true and the digest is not known yet, it is computed from the file
+	 * @return
+	 * 		the sha1 digest of the jar file, or null if the artifact is not available locally or 
+	 * 		the digest is unknown
+	 */
+	String getSha1(MavenArtifact artifact, boolean compute) {
+		final String sha1 = index.getSha1(artifact);
+		if (sha1 != null || !compute || !verify(artifact, false))
+			return sha1;
+		return index.getSha1(artifact);
+	}
+
+	/**
+	 * Removes a corrupt artifact from the index and the file system, so it will be downloaded again.
+	 */
+	void discard(MavenArtifact artifact) throws IOException {
+		final Path file = resolveFile(artifact);
+		index.remove(artifact);
+		if (file != null)
+			Files.deleteIfExists(file);
+	}
+
+	/**
+	 * Removes the artifact from the index, e.g. because the indexed file has been deleted externally.
+	 */
+	void invalidate(MavenArtifact artifact) {
+		index.remove(artifact);
+	}
+
+	/**
+	 * Persists the index.
+	 */
+	void flush() {
+		index.flush();
+	}
+
+	private static String readChecksum(final Path file, final String algo) {
+		final Path checksumFile = file.resolveSibling(file.getFileName() + "." + algo);
+		try {
+			return Checksums.parseChecksum(new String(Files.readAllBytes(checksumFile), StandardCharsets.US_ASCII));
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @param artifact
+	 * @return
+	 * 		the pom file of the artifact, or null if it is not available locally
+	 */
+	Path resolvePom(MavenArtifact artifact) {
+		final Path file = artifactDir(artifact).resolve(artifact.getArtifactId() + "-" + artifact.getVersion() + ".pom");
+		return Files.isRegularFile(file) ? file : null;
+	}
+
+	/**
+	 * @param artifact
+	 * @param pom
+	 * 		the verified pom content
+	 * @return
+	 * 		the pom file
+	 * @throws IOException
+	 */
+	Path installPom(final MavenArtifact artifact, final byte[] pom) throws IOException {
+		final Path dir = artifactDir(artifact);
+		Files.createDirectories(dir);
+		final String fileName = artifact.getArtifactId() + "-" + artifact.getVersion() + ".pom";
+		final Path file = dir.resolve(fileName);
+		writeAtomically(file, pom);
+		return file;
+	}
+
+	/**
+	 * @param artifact
+	 * @return
+	 * 		the versions of the artifact available in the local repository
+	 */
+	List<String> getVersions(final MavenArtifact artifact) {
+		final Path dir = artifactDir(artifact).getParent();
+		final List<String> versions = new ArrayList<>();
+		if (!Files.isDirectory(dir))
+			return versions;
+		try (final DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+			for (Path p : stream) {
+				final String version = p.getFileName().toString();
+				if (Files.isRegularFile(p.resolve(artifact.getArtifactId() + "-" + version + ".jar")))
+					versions.add(version);
+			}
+		} catch (IOException e) {
+			MavenResolver.warn("Failed to list local versions of " + artifact, e);
+		}
+		return versions;
+	}
+
+	private Path artifactDir(final MavenArtifact artifact) {
 		Path dir = homeRepo;
 		for (String pckg : artifact.getGroupId().split("\\.")) {
 			if (pckg.isEmpty())
 				continue;
 			dir = dir.resolve(pckg);
 		}
+		return dir.resolve(artifact.getArtifactId()).resolve(artifact.getBaseVersion());
+	}
+
+	/**
+	 * @param artifact
+	 * @return
+	 * 		an interrupted download of the artifact that can be resumed, or null. Downloads
+	 * 		whose source repository is unknown are not resumed.
+	 */
+	PartialDownload getPartialDownload(final MavenArtifact artifact) {
+		final Path part = artifactDir(artifact).resolve(artifact.getArtifactId() + "-" + artifact.getVersion() + ".jar" + PART_SUFFIX);
+		if (activeParts.contains(part))
+			return null;
+		try {
+			final long size = Files.size(part);
+			if (size <= 0)
+				return null;
+			final Path validatorFile = part.resolveSibling(part.getFileName() + VALIDATOR_SUFFIX);
+			if (!Files.isRegularFile(validatorFile))
+				return null;
+			final String state = new String(Files.readAllBytes(validatorFile), StandardCharsets.UTF_8);
+			final int idx = state.indexOf('\t');
+			if (idx <= 0)
+				return null;
+			final String validator = state.substring(idx + 1).trim();
+			return new PartialDownload(size, state.substring(0, idx).trim(), validator.isEmpty() ? null : validator);
+		} catch (IOException e) {
+			return null;
+		}
+	}
 
-		dir = dir.resolve(artifact.getArtifactId()).resolve(artifact.getVersion());
+	/**
+	 * The artifact is first written to a .part file, while its checksum is computed from the stream.
+	 * Only if the checksum matches the one provided by the remote repository, the file is moved
+	 * to its final location, so the local repository never contains a partially written or corrupt artifact.
+	 * If the transfer fails, the .part file is kept, so the download can be resumed later on, see
+	 * {@link #getPartialDownload(MavenArtifact)}. 
+	 * @param artifact
+	 * @param result
+	 * @return
+	 * 		the number of bytes transferred
+	 * @throws ChecksumMismatchException if the checksum of the downloaded file does not match the expected value
+	 * @throws IOException
+	 */
+	long installArtifact(final MavenArtifact artifact, final ResolutionResult result) throws IOException {
+		final Path dir = artifactDir(artifact);
 		Files.createDirectories(dir);
-		final Path file = dir
-			.resolve(artifact.getArtifactId() + "-" + artifact.getVersion() + ".jar");
-		Files.copy(result.result, file, StandardCopyOption.REPLACE_EXISTING);
-		if (result.checksumAlgo != null) {
-			final Path checksum = dir
-					.resolve(artifact.getArtifactId() + "-" + artifact.getVersion() + ".jar." + result.checksumAlgo);
-			Files.copy(result.checksumInput, checksum);
-			if (!Checksums.getValidator(result.checksumAlgo).validate(Files.newInputStream(file), 
-					toString(Files.newBufferedReader(checksum, StandardCharsets.UTF_8)).toString())) {
-				Files.delete(file);
-				Files.delete(checksum);
-				if (retry)
-					installArtifact(artifact, result, false);
+		final String fileName = artifact.getArtifactId() + "-" + artifact.getVersion() + ".jar";
+		final Path file = dir.resolve(fileName);
+		final MessageDigest digest = result.checksumAlgo != null ? Checksums.getValidator(result.checksumAlgo).newDigest() : null;
+		final Path part = dir.resolve(fileName + PART_SUFFIX);
+		final boolean resumable = activeParts.add(part);
+		final Path target = resumable ? part : Files.createTempFile(dir, fileName, ".tmp");
+		final Path validatorFile = part.resolveSibling(part.getFileName() + VALIDATOR_SUFFIX);
+		boolean published = false;
+		// whether the target file may be used to resume the download later on
+		boolean keep = false;
+		final long transferred;
+		try {
+			if (result.offset > 0 && (!Files.isRegularFile(target) || Files.size(target) != result.offset))
+				throw new IOException("Partial download " + target + " does not match the requested range");
+			if (resumable && result.offset == 0) {
+				if (result.repository != null)
+					Files.write(validatorFile, (result.repository + "\t" + (result.validator != null ? result.validator : ""))
+							.getBytes(StandardCharsets.UTF_8));
 				else
-					throw new IOException("Failed to install artifact " + artifact + ": checksums do not match!");
+					Files.deleteIfExists(validatorFile);
+			}
+			try {
+				transferred = transfer(result, target, digest);
+			} catch (IOException e) {
+				keep = resumable;
+				throw e;
+			}
+			if (digest != null) {
+				if (!Checksums.matches(digest.digest(), result.checksum))
+					throw new ChecksumMismatchException("Failed to install artifact " + artifact + ": checksums do not match!");
+				writeAtomically(dir.resolve(fileName + "." + result.checksumAlgo), result.checksum.getBytes(StandardCharsets.UTF_8));
+			}
+			moveAtomically(target, file);
+			published = true;
+			index.put(artifact, file, "sha1".equals(result.checksumAlgo) ? result.checksum : null);
+		} finally {
+			if (!published && !keep)
+				Files.deleteIfExists(target);
+			if (resumable) {
+				if (!keep)
+					Files.deleteIfExists(validatorFile);
+				activeParts.remove(part);
 			}
 		}
-		
+		return transferred;
 	}
 
-	private static StringBuilder toString(final BufferedReader reader) throws IOException {
-		final char[] buff = new char[124];
-		final StringBuilder sb = new StringBuilder();
+	/**
+	 * Writes the result stream to the target file, starting at the offset of the result, and
+	 * updates the digest with the complete file content. 
+	 * @return
+	 * 		the number of bytes read from the result stream
+	 */
+	private static long transfer(final ResolutionResult result, final Path target, final MessageDigest digest) throws IOException {
+		final byte[] buffer = new byte[8192];
 		int read;
-		while((read = reader.read(buff)) != -1) {
-			sb.append(buff, 0, read);
-			if (sb.length() > 1000)
-				return null;
+		if (result.offset > 0 && digest != null) {
+			try (final InputStream in = Files.newInputStream(target)) {
+				while ((read = in.read(buffer)) != -1) {
+					digest.update(buffer, 0, read);
+				}
+			}
+		}
+		long transferred = 0;
+		try (final OutputStream out = result.offset > 0 ? Files.newOutputStream(target, StandardOpenOption.APPEND) 
+				: Files.newOutputStream(target)) {
+			while ((read = result.result.read(buffer)) != -1) {
+				if (digest != null)
+					digest.update(buffer, 0, read);
+				out.write(buffer, 0, read);
+				transferred += read;
+			}
 		}
-		return sb;
+		return transferred;
 	}
-	
+
+	/**
+	 * Writes the file via a temporary file in the same folder, which replaces the target once complete, 
+	 * so that readers never see a partially written file. The temporary file is deleted if writing 
+	 * or moving fails. The folder must exist.
+	 */
+	static void writeAtomically(final Path file, final byte[] content) throws IOException {
+		final Path tmp = createTempFile(file);
+		try {
+			Files.write(tmp, content);
+			moveAtomically(tmp, file);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	/**
+	 * Like {@link #writeAtomically(Path, byte[])}, for UTF-8 text written by the content callback.
+	 */
+	static void writeAtomically(final Path file, final FileContent content) throws IOException {
+		final Path tmp = createTempFile(file);
+		try {
+			try (final BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+				content.write(writer);
+			}
+			moveAtomically(tmp, file);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	private static Path createTempFile(final Path file) throws IOException {
+		return Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+	}
+
+	static void moveAtomically(final Path source, final Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
 	@Override
 	public String toString() {
 		return "Local repository: " + homeRepo;
 	}
 
+	/**
+	 * Text content of a file, see {@link LocalMavenRepo#writeAtomically(Path, FileContent)}.
+	 */
+	interface FileContent {
+
+		void write(BufferedWriter writer) throws IOException;
+
+	}
+
+	@SuppressWarnings("serial")
+	static class ChecksumMismatchException extends IOException {
+
+		ChecksumMismatchException(String message) {
+			super(message);
+		}
+
+	}
+
 }
@@ -0,0 +1,235 @@
+/**
+ * Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.drivers.maven.resolver.impl;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.codec.binary.Hex;
+import org.smartrplace.drivers.maven.resolver.impl.checksums.Checksums;
+
+/**
+ * Index of the artifacts in the local repository, mapping coordinates to the jar file,
+ * its size, last modified time and sha1 digest. Existence lookups are answered from memory,
+ * and the digest of a file is only recomputed on verification if its size or modification time
+ * has changed. The index is persisted in a file next to the local repository, one entry per line:
+ * coordinates, size, last modified time, sha1 digest (or "-") and the path relative to the repository,
+ * separated by tabs.
+ */
+class LocalRepoIndex {
+
+	private final static String NO_DIGEST = "-";
+	private final Path file;
+	private final Path repo;
+	// guarded by this
+	private final Map<String, Entry> entries = new HashMap<>();
+	// guarded by this; entries removed since the last flush
+	private final Set<String> removed = new HashSet<>();
+	// guarded by this
+	private boolean dirty;
+
+	LocalRepoIndex(Path file, Path repo) {
+		this.file = file;
+		this.repo = repo;
+		read(file, repo, entries);
+	}
+
+	/**
+	 * @param artifact
+	 * @return
+	 * 		the indexed jar file, or null if the artifact is not in the index. The file is not accessed.
+	 */
+	synchronized Path get(final MavenArtifact artifact) {
+		final Entry entry = entries.get(artifact.getCoordinates());
+		return entry == null ? null : entry.path;
+	}
+
+	/**
+	 * @param artifact
+	 * @return
+	 * 		the sha1 digest of the indexed jar file, or null if the artifact is not indexed or the digest
+	 * 		is not known yet. The file is not accessed.
+	 */
+	synchronized String getSha1(final MavenArtifact artifact) {
+		final Entry entry = entries.get(artifact.getCoordinates());
+		return entry == null ? null : entry.sha1;
+	}
+
+	/**
+	 * Adds the file to the index, or updates an existing entry.
+	 * @param artifact
+	 * @param path
+	 * @param sha1
+	 * 		may be null, in which case the digest is computed on the next verification
+	 * @throws IOException
+	 */
+	void put(final MavenArtifact artifact, final Path path, final String sha1) throws IOException {
+		final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		final Entry entry = new Entry(path, attributes.size(), attributes.lastModifiedTime().toMillis(), sha1);
+		synchronized (this) {
+			entries.put(artifact.getCoordinates(), entry);
+			removed.remove(artifact.getCoordinates());
+			dirty = true;
+		}
+	}
+
+	synchronized void remove(final MavenArtifact artifact) {
+		if (entries.remove(artifact.getCoordinates()) != null) {
+			removed.add(artifact.getCoordinates());
+			dirty = true;
+		}
+	}
+
+	/**
+	 * Checks that the indexed file still exists and is intact. If its size and last modified time
+	 * are unchanged, the file content is not read, unless a full verification is requested. 
+	 * Otherwise the digest is recomputed and compared to the checksum file next to the jar, 
+	 * if present (.sha1, or else .md5). Files that fail verification are removed from the index.
+	 * @param artifact
+	 * @param full
+	 * 		always recompute the digest, even if size and modification time are unchanged
+	 * @return
+	 * 		true if the artifact is indexed and verified, false otherwise
+	 */
+	boolean verify(final MavenArtifact artifact, final boolean full) {
+		final Entry entry;
+		synchronized (this) {
+			entry = entries.get(artifact.getCoordinates());
+		}
+		if (entry == null)
+			return false;
+		try {
+			final BasicFileAttributes attributes = Files.readAttributes(entry.path, BasicFileAttributes.class);
+			final long lastModified = attributes.lastModifiedTime().toMillis();
+			if (!full && entry.sha1 != null && attributes.size() == entry.size && lastModified == entry.lastModified)
+				return true;
+			String algo = null;
+			String expected = null;
+			for (String a : Checksums.getAlgos()) {
+				final Path checksumFile = entry.path.resolveSibling(entry.path.getFileName() + "." + a);
+				if (Files.isRegularFile(checksumFile)) {
+					algo = a;
+					expected = Checksums.parseChecksum(new String(Files.readAllBytes(checksumFile), StandardCharsets.US_ASCII));
+					break;
+				}
+			}
+			final MessageDigest sha1Digest = Checksums.getValidator("sha1").newDigest();
+			final MessageDigest digest = algo == null || algo.equals("sha1") ? sha1Digest : Checksums.getValidator(algo).newDigest();
+			if (digest == sha1Digest)
+				Checksums.digest(entry.path, sha1Digest);
+			else
+				Checksums.digest(entry.path, sha1Digest, digest);
+			final String sha1 = Hex.encodeHexString(sha1Digest.digest());
+			final boolean matches = digest == sha1Digest ? sha1.equals(expected) : Checksums.matches(digest.digest(), expected);
+			if (algo != null && !matches) {
+				MavenResolver.warn("Checksum mismatch for " + entry.path + " in local repository");
+				remove(artifact);
+				return false;
+			}
+			synchronized (this) {
+				if (entries.get(artifact.getCoordinates()) == entry) {
+					entries.put(artifact.getCoordinates(), new Entry(entry.path, attributes.size(), lastModified, sha1));
+					dirty = true;
+				}
+			}
+			return true;
+		} catch (NoSuchFileException e) {
+			remove(artifact);
+			return false;
+		} catch (IOException e) {
+			MavenResolver.warn("Failed to verify " + entry.path, e);
+			return false;
+		}
+	}
+
+	/**
+	 * Writes the index to disk, merged with entries added concurrently by other instances.
+	 */
+	synchronized void flush() {
+		if (!dirty)
+			return;
+		final Map<String, Entry> merged = new HashMap<>();
+		read(file, repo, merged);
+		merged.keySet().removeAll(removed);
+		merged.putAll(entries);
+		try {
+			LocalMavenRepo.writeAtomically(file, new LocalMavenRepo.FileContent() {
+
+				@Override
+				public void write(final BufferedWriter writer) throws IOException {
+					for (Map.Entry<String, Entry> entry : merged.entrySet()) {
+						final Entry e = entry.getValue();
+						writer.write(entry.getKey() + "\t" + e.size + "\t" + e.lastModified + "\t"
+								+ (e.sha1 == null ? NO_DIGEST : e.sha1) + "\t" + repo.relativize(e.path));
+						writer.newLine();
+					}
+				}
+			});
+			removed.clear();
+			dirty = false;
+		} catch (IOException e) {
+			MavenResolver.warn("Failed to persist local repository index " + file, e);
+		}
+	}
+
+	private static void read(final Path file, final Path repo, final Map<String, Entry> target) {
+		if (!Files.isRegularFile(file))
+			return;
+		try (final BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				final String[] fields = line.split("\t");
+				if (fields.length != 5)
+					continue;
+				try {
+					target.put(fields[0], new Entry(repo.resolve(fields[4]), Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+							NO_DIGEST.equals(fields[3]) ? null : fields[3]));
+				} catch (RuntimeException ignore) {}
+			}
+		} catch (IOException e) {
+			MavenResolver.warn("Failed to read local repository index " + file, e);
+		}
+	}
+
+	private static class Entry {
+
+		final Path path;
+		final long size;
+		final long lastModified;
+		// may be null
+		final String sha1;
+
+		Entry(Path path, long size, long lastModified, String sha1) {
+			this.path = path;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.sha1 = sha1;
+		}
+
+	}
+
+}
@@ -15,6 +15,9 @@
  */
 package org.smartrplace.drivers.maven.resolver.impl;
 
+import java.util.Collections;
+import java.util.List;
+
 class MavenArtifact {
 
 	private final static char[] FILTER_CHARS = {'-', '.', '_'};
@@ -23,6 +26,10 @@ class MavenArtifact {
 	private final String versionId;
 	private final int startLevel;
 	private final boolean doStart;
+	// null: use default
+	private final Boolean transitive;
+	// groupId:artifactId, either of which may be *
+	private final List<String> exclusions;
 	private volatile String bundleSymbolicName;
 
 	MavenArtifact(int startLevel, boolean doStart) {
@@ -30,6 +37,24 @@ class MavenArtifact {
 	}
 
 	MavenArtifact(String groupId, String artifactId, String versionId, int startLevel, boolean doStart) {
+		this(groupId, artifactId, versionId, startLevel, doStart, null, Collections.<String> emptyList());
+	}
+
+	/**
+	 * @param groupId
+	 * @param artifactId
+	 * @param versionId
+	 * @param startLevel
+	 * @param doStart
+	 * @param transitive
+	 * 		whether to resolve the dependencies of the artifact; null to use the default
+	 * @param exclusions
+	 * 		transitive dependencies to exclude, in the form groupId:artifactId, either of which may be *
+	 */
+	MavenArtifact(String groupId, String artifactId, String versionId, int startLevel, boolean doStart,
+			Boolean transitive, List<String> exclusions) {
+		this.transitive = transitive;
+		this.exclusions = Collections.unmodifiableList(exclusions);
 		this.groupId = groupId;
 		this.artifactId = artifactId;
 		this.versionId = versionId;
@@ -49,6 +74,16 @@ class MavenArtifact {
 		return versionId;
 	}
 
+	/**
+	 * @return
+	 * 		the version of the folder containing the artifact, which differs from 
+	 * 		{@link #getVersion()} for timestamped snapshots only; e.g. 1.0-SNAPSHOT 
+	 * 		for version 1.0-20180101.120000-3
+	 */
+	public String getBaseVersion() {
+		return Versions.getBaseVersion(versionId);
+	}
+
 	public int getStartLevel() {
 		return startLevel;
 	}
@@ -57,6 +92,38 @@ class MavenArtifact {
 		return doStart;
 	}
 
+	/**
+	 * @return
+	 * 		a copy of this artifact with a different version
+	 */
+	MavenArtifact withVersion(String version) {
+		return new MavenArtifact(groupId, artifactId, version, startLevel, doStart, transitive, exclusions);
+	}
+
+	/**
+	 * @return
+	 * 		null if the default applies
+	 */
+	Boolean getTransitive() {
+		return transitive;
+	}
+
+	public boolean isTransitive(boolean defaultValue) {
+		return transitive != null ? transitive : defaultValue;
+	}
+
+	public List<String> getExclusions() {
+		return exclusions;
+	}
+
+	/**
+	 * @return
+	 * 		groupId:artifactId:version
+	 */
+	public String getCoordinates() {
+		return groupId + ":" + artifactId + ":" + versionId;
+	}
+
 	public String getBundleSymbolicName() {
 		String bsn = this.bundleSymbolicName;
 		if (bsn != null)
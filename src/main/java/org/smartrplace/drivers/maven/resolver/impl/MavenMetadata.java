@@ -0,0 +1,150 @@
+/**
+ * Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.drivers.maven.resolver.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * The content of a maven-metadata.xml file, either for an artifact, listing its versions,
+ * or for a snapshot version, listing the timestamped snapshots.
+ */
+class MavenMetadata {
+
+	// may be empty
+	final List<String> versions;
+	// may be null
+	final String latest;
+	// may be null
+	final String release;
+	// may be null
+	private final String snapshotTimestamp;
+	// may be null
+	private final String snapshotBuildNumber;
+	// extension -> timestamped version, for artifacts without classifier
+	private final Map<String, String> snapshotVersions;
+
+	private MavenMetadata(List<String> versions, String latest, String release, String snapshotTimestamp,
+			String snapshotBuildNumber, Map<String, String> snapshotVersions) {
+		this.versions = Collections.unmodifiableList(versions);
+		this.latest = latest;
+		this.release = release;
+		this.snapshotTimestamp = snapshotTimestamp;
+		this.snapshotBuildNumber = snapshotBuildNumber;
+		this.snapshotVersions = snapshotVersions;
+	}
+
+	/**
+	 * @param snapshotVersion
+	 * 		e.g. 1.0-SNAPSHOT
+	 * @param extension
+	 * 		e.g. jar
+	 * @return
+	 * 		the timestamped version of the latest snapshot, e.g. 1.0-20180101.120000-3, or null if
+	 * 		the repository does not use timestamped snapshots
+	 */
+	String getSnapshotVersion(final String snapshotVersion, final String extension) {
+		final String version = snapshotVersions.get(extension);
+		if (version != null)
+			return version;
+		if (snapshotTimestamp == null || snapshotBuildNumber == null)
+			return null;
+		return snapshotVersion.substring(0, snapshotVersion.length() - Versions.SNAPSHOT.length())
+				+ snapshotTimestamp + "-" + snapshotBuildNumber;
+	}
+
+	static MavenMetadata parse(final byte[] content) throws IOException {
+		final Document document;
+		try {
+			final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+			factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+			factory.setExpandEntityReferences(false);
+			document = factory.newDocumentBuilder().parse(new ByteArrayInputStream(content));
+		} catch (ParserConfigurationException | SAXException e) {
+			throw new IOException("Invalid maven metadata", e);
+		}
+		final Node metadata = getChild(document, "metadata");
+		final Node versioning = metadata != null ? getChild(metadata, "versioning") : null;
+		if (versioning == null)
+			return new MavenMetadata(Collections.<String> emptyList(), null, null, null, null, Collections.<String, String> emptyMap());
+		final List<String> versions = new ArrayList<>();
+		final Node versionsNode = getChild(versioning, "versions");
+		if (versionsNode != null) {
+			final NodeList nl = versionsNode.getChildNodes();
+			for (int i = 0; i < nl.getLength(); i++) {
+				final Node n = nl.item(i);
+				if (n.getNodeType() == Node.ELEMENT_NODE && "version".equals(n.getNodeName()))
+					versions.add(n.getTextContent().trim());
+			}
+		}
+		String timestamp = null;
+		String buildNumber = null;
+		final Node snapshot = getChild(versioning, "snapshot");
+		if (snapshot != null && !"true".equals(getText(snapshot, "localCopy"))) {
+			timestamp = getText(snapshot, "timestamp");
+			buildNumber = getText(snapshot, "buildNumber");
+		}
+		final Map<String, String> snapshotVersions = new HashMap<>(4);
+		final Node snapshotVersionsNode = getChild(versioning, "snapshotVersions");
+		if (snapshotVersionsNode != null) {
+			final NodeList nl = snapshotVersionsNode.getChildNodes();
+			for (int i = 0; i < nl.getLength(); i++) {
+				final Node n = nl.item(i);
+				if (n.getNodeType() != Node.ELEMENT_NODE || !"snapshotVersion".equals(n.getNodeName()) || getText(n, "classifier") != null)
+					continue;
+				final String extension = getText(n, "extension");
+				final String value = getText(n, "value");
+				if (extension != null && value != null)
+					snapshotVersions.put(extension, value);
+			}
+		}
+		return new MavenMetadata(versions, getText(versioning, "latest"), getText(versioning, "release"),
+				timestamp, buildNumber, snapshotVersions);
+	}
+
+	private static Node getChild(final Node parent, final String name) {
+		final NodeList nl = parent.getChildNodes();
+		for (int i = 0; i < nl.getLength(); i++) {
+			final Node n = nl.item(i);
+			if (n.getNodeType() == Node.ELEMENT_NODE && name.equals(n.getNodeName()))
+				return n;
+		}
+		return null;
+	}
+
+	private static String getText(final Node parent, final String name) {
+		final Node n = getChild(parent, name);
+		if (n == null)
+			return null;
+		final String text = n.getTextContent().trim();
+		return text.isEmpty() ? null : text;
+	}
+
+}
@@ -15,9 +15,9 @@
  */
 package org.smartrplace.drivers.maven.resolver.impl;
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -26,30 +26,37 @@ import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Semaphore;
 
-import javax.xml.parsers.ParserConfigurationException;
-
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleException;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.ServiceRegistration;
 import org.osgi.framework.startlevel.BundleStartLevel;
 import org.osgi.framework.startlevel.FrameworkStartLevel;
 import org.osgi.framework.wiring.BundleRevision;
 import org.osgi.framework.wiring.FrameworkWiring;
 import org.slf4j.LoggerFactory;
-import org.xml.sax.SAXException;
+import org.smartrplace.drivers.maven.resolver.metrics.ResolverMetrics;
 
 public class MavenResolver implements BundleActivator {
 
 	private final Semaphore initLock = new Semaphore(1);
+	private volatile Trash trash;
+	private volatile ServiceRegistration<ResolverMetrics> metricsRegistration;
 
 	@Override
 	public void start(final BundleContext ctx) throws Exception {
+		Metrics.INSTANCE.register(ManagementFactory.getPlatformMBeanServer());
+		metricsRegistration = ctx.registerService(ResolverMetrics.class, Metrics.INSTANCE, null);
 		if (!initLock.tryAcquire())
 			return;
 		new Thread(new Runnable() {
@@ -60,21 +67,152 @@ public class MavenResolver implements BundleActivator {
 					final File cleanMarker = ctx.getDataFile("cleanMarker");
 					if (cleanMarker.exists()) {
 						debug("Unclean start detected.");
-						setStartLevel();
+						if (Properties.getBoolean(ctx, Properties.RECONCILE_PROPERTY, false))
+							reconcile();
+						else
+							setStartLevel();
 						return;
 					}
 					debug("Clean start detected, now launching bundles.");
-					final ConfigFile cfg = ConfigParser.parse(ctx);
+					StartupTrace.begin(ctx);
+					final Metrics.StartupStats stats = Metrics.startup();
+					long t = stats.begin();
+					final List<Path> configFiles = ConfigParser.getConfigFiles(ctx);
+					final String configHash = ConfigParser.hash(configFiles);
+					final String configKey = BootLock.getKey(ctx, configHash);
+					final Path lockFile = BootLock.getFile(ctx);
+					BootLock lock = lockFile != null ? BootLock.read(lockFile) : null;
+					if (lock != null && !lock.configHash.equals(configKey)) {
+						debug("Config or resolver settings have changed, ignoring lock file {}", lockFile);
+						lock = null;
+					}
+					final ConfigFile cfg;
+					if (lock != null) {
+						debug("Starting from lock file {}", lockFile);
+						cfg = lock.getConfig();
+					} else {
+						cfg = ConfigParser.parse(ctx, configFiles, configHash);
+					}
+					t = stats.phase("config", t);
 					cleanUp(cfg.getDeleteFiles(), ctx);
-					startBundles(cfg.getArtifacts());
+					stats.phase("cleanUp", t);
+					final Resolver resolver = startBundles(cfg.getArtifacts(), lock);
+					if (lockFile != null && resolver != null) {
+						try {
+							final BootLock newLock = resolver.createLock(configKey, cfg.getDeleteFiles());
+							if (newLock != null) {
+								newLock.write(lockFile);
+								debug("Lock file written to {}", lockFile);
+							}
+						} catch (IOException e) {
+							warn("Failed to write lock file " + lockFile, e);
+						}
+					}
+					stats.end(resolver == null ? 0 : resolver.getInstalled().size());
+					final boolean complete = resolver == null || resolver.isComplete();
+					writeInstalled(new InstalledBundles(complete ? configKey : InstalledBundles.INCOMPLETE, 
+							resolver == null ? Collections.<String, InstalledBundles.Entry> emptyMap() : resolver.getInstalled()));
 					cleanMarker.createNewFile();
-				} catch (ParserConfigurationException | IOException | SAXException e) {
+				} catch (IOException e) {
 					MavenResolver.warn("Initialization failed", e);
 				} finally {
+					StartupTrace.end(ctx);
 					initLock.release();
 				}
 			}
 			
+			/**
+			 * Applies the changes of the configuration since the last start to the installed bundles:
+			 * added artifacts are installed, bundles whose version has changed are updated, and those
+			 * no longer configured are uninstalled. Called on unclean start only. 
+			 */
+			private void reconcile() throws IOException {
+				final List<Path> configFiles = ConfigParser.getConfigFiles(ctx);
+				final String configHash = ConfigParser.hash(configFiles);
+				final String configKey = BootLock.getKey(ctx, configHash);
+				final InstalledBundles previous = InstalledBundles.read(ctx.getDataFile(InstalledBundles.FILE_NAME).toPath());
+				if (previous == null || previous.configHash.equals(configKey)) {
+					if (previous == null)
+						warn("No record of installed bundles found, configuration changes require a clean start");
+					setStartLevel();
+					return;
+				}
+				info("Configuration has changed, updating bundles");
+				StartupTrace.begin(ctx);
+				final Metrics.StartupStats stats = Metrics.startup();
+				long t = stats.begin();
+				final ConfigFile cfg = ConfigParser.parse(ctx, configFiles, configHash);
+				t = stats.phase("config", t);
+				final Resolver resolver = new Resolver(cfg.getArtifacts(), ctx, null, previous);
+				resolver.start();
+				t = stats.phase("resolve", t);
+				final Collection<ResolvedArtifact> changed = resolver.install();
+				t = stats.phase("install", t);
+				final List<Bundle> updated = resolver.getUpdated();
+				final List<Bundle> toRefresh = new ArrayList<>(updated);
+				for (InstalledBundles.Entry e : resolver.getRemoved()) {
+					final Bundle b = ctx.getBundle(e.bundleId);
+					if (b == null)
+						continue;
+					try {
+						b.uninstall();
+						toRefresh.add(b);
+						debug("Bundle {} uninstalled", b);
+					} catch (BundleException | IllegalStateException ex) {
+						warn("Failed to uninstall bundle " + b, ex);
+					}
+				}
+				final FrameworkWiring fw = ctx.getBundle(0).adapt(FrameworkWiring.class);
+				if (!toRefresh.isEmpty()) {
+					final CountDownLatch refreshed = new CountDownLatch(1);
+					fw.refreshBundles(toRefresh, new FrameworkListener() {
+
+						@Override
+						public void frameworkEvent(FrameworkEvent event) {
+							refreshed.countDown();
+						}
+					});
+					try {
+						refreshed.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+					t = stats.phase("refresh", t);
+				}
+				final Map<Integer, List<ResolvedArtifact>> added = new TreeMap<>();
+				final List<Bundle> addedBundles = new ArrayList<>();
+				for (ResolvedArtifact a : changed) {
+					a.getBundle().adapt(BundleStartLevel.class).setStartLevel(a.getArtifact().getStartLevel());
+					if (updated.contains(a.getBundle()))
+						continue;
+					if (!added.containsKey(a.getArtifact().getStartLevel()))
+						added.put(a.getArtifact().getStartLevel(), new ArrayList<ResolvedArtifact>());
+					added.get(a.getArtifact().getStartLevel()).add(a);
+					addedBundles.add(a.getBundle());
+				}
+				info(addedBundles.size() + " bundles installed, " + updated.size() + " updated, " 
+						+ (toRefresh.size() - updated.size()) + " uninstalled");
+				if (!addedBundles.isEmpty()) {
+					fw.resolveBundles(fw.getDependencyClosure(addedBundles));
+					t = stats.phase("resolveBundles", t);
+				}
+				setStartLevel();
+				startBundles(added);
+				stats.phase("start", t);
+				stats.end(changed.size());
+				writeInstalled(new InstalledBundles(resolver.isComplete() ? configKey : InstalledBundles.INCOMPLETE, resolver.getInstalled()));
+			}
+
+			private void writeInstalled(final InstalledBundles installed) {
+				final File file = ctx.getDataFile(InstalledBundles.FILE_NAME);
+				try {
+					installed.write(file.toPath());
+				} catch (IOException e) {
+					warn("Failed to write installed bundles file " + file, e);
+				}
+			}
+
 			// called on clean start only
 			private void cleanUp(final List<Path> deleteFiles, final BundleContext ctx) {
 				final Path workingDir = Paths.get(".");
@@ -85,6 +223,7 @@ public class MavenResolver implements BundleActivator {
 				} else {
 					osgiStorageDir = Paths.get("felix-cache");
 				}
+				final List<Path> toDelete = new ArrayList<>(deleteFiles.size());
 				for (Path path : deleteFiles) {
 					if (!isSubdir(workingDir, path) || workingDir.normalize().equals(path.normalize())) {
 						warn("Specified delete file " + path + " is not a subpath of the working dir, omitting this.");
@@ -94,36 +233,12 @@ public class MavenResolver implements BundleActivator {
 						debug("Skipping deletion of OSGi storage dir {}", path);
 						continue;
 					}
-					try {
-						deleteRecursively(path);
-					} catch (IOException e) {
-						warn("Failed to delete file/folder " + path, e);
-					}
-				}
-			}
-			
-			private void deleteRecursively(final Path p) throws IOException {
-				if (Files.isRegularFile(p)) {
-					debug("Deleting file {}", p);
-					Files.delete(p);
-				}
-				else if (Files.isDirectory(p)) {
-					debug("Deleting folder {}", p);
-					Files.walkFileTree(p, new SimpleFileVisitor<Path>() {
-						
-						@Override
-						public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-							Files.delete(file);
-							return FileVisitResult.CONTINUE;
-						}
-
-						@Override
-						public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
-							Files.delete(dir);
-						    return FileVisitResult.CONTINUE;
-						}
-					});
+					toDelete.add(path);
 				}
+				final Trash trash = Trash.get(ctx);
+				MavenResolver.this.trash = trash;
+				trash.delete(toDelete);
+				trash.purge(Properties.getInt(ctx, Properties.PARALLELISM_PROPERTY, Properties.PARALLELISM_DEFAULT));
 			}
 
 			private void setStartLevel() {
@@ -139,41 +254,43 @@ public class MavenResolver implements BundleActivator {
 				debug("Start level set to " + (maxStartLevel + 1));
 			}
 
-			private void startBundles(final List<MavenArtifact> artifacts) throws ParserConfigurationException, IOException, SAXException {
+			/**
+			 * @return
+			 * 		the resolver used, or null if no artifacts are configured
+			 */
+			private Resolver startBundles(final List<MavenArtifact> artifacts, final BootLock lock) throws IOException {
 				if (artifacts == null || artifacts.isEmpty()) { // FIXME install static files in any case
-					return;
+					return null;
 				}
-				final Resolver resolver = new Resolver(artifacts, ctx);
+				final Resolver resolver = new Resolver(artifacts, ctx, lock);
 				final int startLevel = 4; // TODO configurable
-				final Map<Integer, List<ResolvedArtifact>> bundles = new HashMap<>();
+				final Map<Integer, List<ResolvedArtifact>> bundles = new TreeMap<>();
 				final List<Bundle> allBundles = new ArrayList<>();
 				bundles.put(startLevel, new ArrayList<ResolvedArtifact>(artifacts.size()+2));
+				final Metrics.StartupStats stats = Metrics.startup();
+				long t = System.nanoTime();
+				// remote resolution runs in the background while the init folder is installed
+				resolver.start();
+				t = stats.phase("resolve", t);
 				String initDir0 = ctx.getProperty(Properties.INIT_DIR_PROPERTY);
 				if (initDir0 == null)
 					initDir0 = Properties.INIT_DIR_DEFAULT;
-				final Path initDir = Paths.get(initDir0);
-				if (Files.isDirectory(initDir)) {
-					Files.walkFileTree(initDir, new SimpleFileVisitor<Path>() {
-
-						@Override
-						public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-							try (final BufferedInputStream stream = new BufferedInputStream(Files.newInputStream(file))) {
-								final String location = "file-init:" + initDir.relativize(file).toString();
-								final Bundle b = ctx.installBundle(location, stream);
-								if (b == null)
-									throw new NullPointerException("Newly installed bundle is null: " + file);
-								final ResolvedArtifact dummyArtifact = new ResolvedArtifact(new MavenArtifact(startLevel, true), b);
-									bundles.get(startLevel).add(dummyArtifact);
-									allBundles.add(b);
-							} catch (BundleException e) {
-								warn("Failed to install bundle " + file);
-							}
-							return FileVisitResult.CONTINUE;
-						}
-
-					});
+				final InitDirInstaller initInstaller = new InitDirInstaller(ctx, Paths.get(initDir0));
+				final List<Bundle> initBundles;
+				try {
+					initBundles = initInstaller.install();
+				} catch (IOException | RuntimeException e) {
+					resolver.close();
+					throw e;
+				}
+				for (Bundle b : initBundles) {
+					final ResolvedArtifact dummyArtifact = new ResolvedArtifact(new MavenArtifact(startLevel, true), b);
+					bundles.get(startLevel).add(dummyArtifact);
+					allBundles.add(b);
 				}
-				final Collection<ResolvedArtifact> bundles0 = resolver.resolve();
+				t = stats.phase("initDir", t);
+				final Collection<ResolvedArtifact> bundles0 = resolver.install();
+				t = stats.phase("install", t);
 				for (ResolvedArtifact a : bundles0) {
 					final int startLevel0 = a.getArtifact().getStartLevel();
 					if (!bundles.containsKey(startLevel0))
@@ -186,8 +303,9 @@ public class MavenResolver implements BundleActivator {
 				final FrameworkWiring fw = system.adapt(FrameworkWiring.class);
 				final Collection<Bundle> closures = fw.getDependencyClosure(allBundles);
 				if (closures == null || closures.isEmpty())
-					return;
+					return resolver;
 				fw.resolveBundles(closures);
+				t = stats.phase("resolveBundles", t);
 				int maxStartLevel = startLevel;
 				for (Map.Entry<Integer, List<ResolvedArtifact>> entry : bundles.entrySet()) {
 					final int startLevel1 = entry.getKey();
@@ -203,18 +321,33 @@ public class MavenResolver implements BundleActivator {
 				fsl.setStartLevel(currentStartLevel);
 				fsl.setInitialBundleStartLevel(currentStartLevel);
 				debug("Start level set to {}", currentStartLevel);
+				startBundles(bundles);
+				stats.phase("start", t);
+				return resolver;
+			}
+
+			/**
+			 * Starts the bundles in the order of their start levels.
+			 * @param bundles
+			 * 		start level -> bundles
+			 */
+			private void startBundles(final Map<Integer, List<ResolvedArtifact>> bundles) {
+				final BundleStarter starter = new BundleStarter(Properties.getInt(ctx, Properties.START_PARALLELISM_PROPERTY, 1));
 				for (List<ResolvedArtifact> list : bundles.values()) {
+					final List<Bundle> toStart = new ArrayList<>(list.size());
 					for (ResolvedArtifact a : list) {
 						if (!a.getArtifact().isDoStart())
 							continue;
 						final Bundle b = a.getBundle();
 						if (isFragment(b) || b.getState() == Bundle.INSTALLED)
 							continue;
-						try {
-							b.start();
-						} catch (Exception e) {
-							info("Failed to start bundle " + b.getSymbolicName());
-						}
+						toStart.add(b);
+					}
+					try {
+						starter.start(toStart);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						break;
 					}
 				}
 			}
@@ -224,8 +357,17 @@ public class MavenResolver implements BundleActivator {
 
 	@Override
 	public void stop(BundleContext context) throws Exception {
-		// TODO Auto-generated method stub
-
+		final Trash trash = this.trash;
+		if (trash != null)
+			trash.close();
+		final ServiceRegistration<ResolverMetrics> metricsRegistration = this.metricsRegistration;
+		this.metricsRegistration = null;
+		if (metricsRegistration != null) {
+			try {
+				metricsRegistration.unregister();
+			} catch (IllegalStateException ignore) {}
+		}
+		Metrics.INSTANCE.unregister();
 	}
 
 	private static boolean isFragment(final Bundle b) {
@@ -0,0 +1,207 @@
+/**
+ * Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.drivers.maven.resolver.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * Caches the maven-metadata.xml files of the remote repositories in the local repository, as
+ * maven-metadata-&lt;repository hash&gt;.xml. Within the time to live, the cached copy is used without
+ * contacting the repository; afterwards it is revalidated by a conditional request. The time of the
+ * last check and the validator of the cached copy are stored in a file with suffix .cache next to it;
+ * a missing metadata file is cached as well.
+ */
+class MetadataCache {
+
+	private final static String STATE_SUFFIX = ".cache";
+	private final static int MAX_SIZE = 4 * 1024 * 1024;
+	private final Client client;
+	private final Path repo;
+	private final long ttl;
+	// loaded or being loaded; entries older than the time to live are reloaded. A null result signals missing metadata
+	private final ConcurrentMap<String, Entry> loaded = new ConcurrentHashMap<>();
+
+	/**
+	 * @param client
+	 * @param repo
+	 * 		the local repository
+	 * @param ttl
+	 * 		time to live in ms
+	 */
+	MetadataCache(Client client, Path repo, long ttl) {
+		this.client = client;
+		this.repo = repo;
+		this.ttl = ttl;
+	}
+
+	/**
+	 * Concurrent requests for the same metadata share a single download. Loaded metadata is kept in
+	 * memory for the time to live, and then checked again.
+	 * @param repoUrl
+	 * @param artifact
+	 * @param snapshot
+	 * 		if true, the metadata of the snapshot version of the artifact is returned, otherwise
+	 * 		the metadata listing the versions of the artifact
+	 * @return
+	 * 		the metadata, or null if the repository does not provide it
+	 * @throws IOException
+	 */
+	MavenMetadata get(final String repoUrl, final MavenArtifact artifact, final boolean snapshot) throws IOException {
+		final String key = repoUrl + "\t" + artifact.getGroupId() + ":" + artifact.getArtifactId() + (snapshot ? ":" + artifact.getBaseVersion() : "");
+		final FutureTask<MavenMetadata> task = new FutureTask<>(new Callable<MavenMetadata>() {
+
+			@Override
+			public MavenMetadata call() throws Exception {
+				return load(repoUrl, artifact, snapshot);
+			}
+		});
+		Entry existing = loaded.get(key);
+		if (existing != null && existing.isExpired(ttl)) {
+			loaded.remove(key, existing);
+			existing = null;
+		}
+		if (existing == null) {
+			final Entry entry = new Entry(task);
+			existing = loaded.putIfAbsent(key, entry);
+			if (existing == null) {
+				existing = entry;
+				task.run();
+			}
+		}
+		try {
+			return existing.task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while loading metadata for " + artifact);
+		} catch (ExecutionException e) {
+			// do not cache failures
+			loaded.remove(key, existing);
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new IOException(cause);
+		}
+	}
+
+	private MavenMetadata load(final String repoUrl, final MavenArtifact artifact, final boolean snapshot) throws IOException {
+		Path dir = repo;
+		for (String pckg : artifact.getGroupId().split("\\.")) {
+			if (!pckg.isEmpty())
+				dir = dir.resolve(pckg);
+		}
+		dir = dir.resolve(artifact.getArtifactId());
+		if (snapshot)
+			dir = dir.resolve(artifact.getBaseVersion());
+		final Path file = dir.resolve("maven-metadata-" + DigestUtils.sha1Hex(repoUrl).substring(0, 12) + ".xml");
+		final Path stateFile = file.resolveSibling(file.getFileName() + STATE_SUFFIX);
+		long lastCheck = -1;
+		String validator = null;
+		if (Files.isRegularFile(stateFile)) {
+			try {
+				final String state = new String(Files.readAllBytes(stateFile), StandardCharsets.UTF_8).trim();
+				final int idx = state.indexOf('\t');
+				lastCheck = Long.parseLong(idx < 0 ? state : state.substring(0, idx));
+				validator = idx < 0 || idx == state.length() - 1 ? null : state.substring(idx + 1);
+			} catch (IOException | NumberFormatException e) {
+				lastCheck = -1;
+			}
+		}
+		final boolean cached = Files.isRegularFile(file);
+		if (lastCheck >= 0 && System.currentTimeMillis() - lastCheck < ttl)
+			return cached ? MavenMetadata.parse(Files.readAllBytes(file)) : null;
+		final byte[] content;
+		try (final Client.Download download = client.downloadMetadata(repoUrl, artifact.getGroupId(), artifact.getArtifactId(),
+				snapshot ? artifact.getBaseVersion() : null, cached ? validator : null)) {
+			if (download == null) {
+				Files.deleteIfExists(file);
+				writeState(stateFile, null);
+				return null;
+			}
+			if (download.notModified) {
+				MavenResolver.debug("Metadata {} not modified", file);
+				writeState(stateFile, validator);
+				return MavenMetadata.parse(Files.readAllBytes(file));
+			}
+			content = readFully(download);
+			validator = download.validator;
+		} catch (IOException e) {
+			if (!cached || ResolverChain.isInterrupt(e))
+				throw e;
+			MavenResolver.warn("Failed to revalidate metadata " + file + ", using cached copy: " + e);
+			return MavenMetadata.parse(Files.readAllBytes(file));
+		}
+		final MavenMetadata metadata = MavenMetadata.parse(content);
+		Files.createDirectories(dir);
+		LocalMavenRepo.writeAtomically(file, content);
+		writeState(stateFile, validator);
+		return metadata;
+	}
+
+	private static void writeState(final Path stateFile, final String validator) throws IOException {
+		Files.createDirectories(stateFile.getParent());
+		LocalMavenRepo.writeAtomically(stateFile, 
+				(System.currentTimeMillis() + "\t" + (validator == null ? "" : validator)).getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static byte[] readFully(final Client.Download in) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+			if (out.size() > MAX_SIZE)
+				throw new IOException("Metadata exceeds the maximum size of " + MAX_SIZE + " bytes");
+		}
+		return out.toByteArray();
+	}
+
+	private static class Entry {
+
+		final FutureTask<MavenMetadata> task;
+		final long created = System.nanoTime();
+
+		Entry(FutureTask<MavenMetadata> task) {
+			this.task = task;
+		}
+
+		/**
+		 * @param ttl
+		 * 		time to live in ms
+		 * @return
+		 * 		true if the metadata has been loaded more than ttl ago; in-flight loads never expire
+		 */
+		boolean isExpired(final long ttl) {
+			return task.isDone() && System.nanoTime() - created > TimeUnit.MILLISECONDS.toNanos(ttl);
+		}
+
+	}
+
+}
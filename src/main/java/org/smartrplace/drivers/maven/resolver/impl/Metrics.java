@@ -0,0 +1,371 @@
+/**
+ * Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.drivers.maven.resolver.impl;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.smartrplace.drivers.maven.resolver.metrics.RepositoryMetricsMXBean;
+import org.smartrplace.drivers.maven.resolver.metrics.ResolverMetrics;
+import org.smartrplace.drivers.maven.resolver.metrics.StartupMetricsMXBean;
+import org.smartrplace.drivers.maven.resolver.metrics.UrlHandlerMetricsMXBean;
+
+/**
+ * Process-wide resolver statistics. Counters are updated lock-free on the resolution paths; 
+ * they are exposed via JMX and as a {@link ResolverMetrics} service by {@link MavenResolver}.
+ */
+class Metrics implements ResolverMetrics {
+
+	final static String LOCAL = "local";
+	final static Metrics INSTANCE = new Metrics();
+	private final static String DOMAIN = "org.smartrplace.maven.resolver";
+	private final ConcurrentMap<String, RepositoryStats> repositories = new ConcurrentHashMap<>();
+	private final UrlHandlerStats urlHandler = new UrlHandlerStats();
+	private final StartupStats startup = new StartupStats();
+	// guarded by this; null if the MBeans are not registered
+	private MBeanServer server;
+
+	private Metrics() {}
+
+	/**
+	 * Registers the MBeans with the server; repositories used later on are registered as they appear.
+	 * @param server
+	 */
+	synchronized void register(final MBeanServer server) {
+		this.server = server;
+		register(DOMAIN + ":type=UrlHandler", urlHandler);
+		register(DOMAIN + ":type=Startup", startup);
+		for (RepositoryStats stats : repositories.values()) {
+			register(stats);
+		}
+	}
+
+	synchronized void unregister() {
+		final MBeanServer server = this.server;
+		if (server == null)
+			return;
+		try {
+			for (ObjectName name : server.queryNames(new ObjectName(DOMAIN + ":*"), null)) {
+				try {
+					server.unregisterMBean(name);
+				} catch (InstanceNotFoundException ignore) {}
+			}
+		} catch (JMException e) {
+			MavenResolver.warn("Failed to unregister MBeans", e);
+		}
+		this.server = null;
+	}
+
+	private synchronized void register(final RepositoryStats stats) {
+		if (server != null)
+			register(DOMAIN + ":type=Repository,name=" + ObjectName.quote(stats.getName()), stats);
+	}
+
+	private void register(final String name, final Object mbean) {
+		try {
+			server.registerMBean(mbean, new ObjectName(name));
+		} catch (InstanceAlreadyExistsException ignore) {
+		} catch (JMException e) {
+			MavenResolver.warn("Failed to register MBean " + name, e);
+		}
+	}
+
+	/**
+	 * @param name
+	 * 		repository URL, or {@link #LOCAL}
+	 * @return
+	 * 		the statistics of the repository, created on first access
+	 */
+	static RepositoryStats repository(final String name) {
+		RepositoryStats stats = INSTANCE.repositories.get(name);
+		if (stats == null) {
+			stats = new RepositoryStats(name);
+			final RepositoryStats existing = INSTANCE.repositories.putIfAbsent(name, stats);
+			if (existing != null)
+				stats = existing;
+			else
+				INSTANCE.register(stats);
+		}
+		return stats;
+	}
+
+	static UrlHandlerStats urlHandler() {
+		return INSTANCE.urlHandler;
+	}
+
+	static StartupStats startup() {
+		return INSTANCE.startup;
+	}
+
+	@Override
+	public Map<String, RepositoryMetricsMXBean> getRepositories() {
+		return Collections.<String, RepositoryMetricsMXBean> unmodifiableMap(new TreeMap<>(repositories));
+	}
+
+	@Override
+	public UrlHandlerMetricsMXBean getUrlHandler() {
+		return urlHandler;
+	}
+
+	@Override
+	public StartupMetricsMXBean getStartup() {
+		return startup;
+	}
+
+	static class RepositoryStats implements RepositoryMetricsMXBean {
+
+		// upper bounds in ms; the last bucket of the histogram collects everything above
+		private final static long[] BUCKETS = { 10, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000 };
+		private final String name;
+		private final AtomicLong hits = new AtomicLong();
+		private final AtomicLong misses = new AtomicLong();
+		private final AtomicLong errors = new AtomicLong();
+		private final AtomicLong checksumFailures = new AtomicLong();
+		private final AtomicLong bytes = new AtomicLong();
+		private final AtomicLong downloads = new AtomicLong();
+		private final AtomicLong downloadNanos = new AtomicLong();
+		private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS.length + 1);
+
+		RepositoryStats(String name) {
+			this.name = name;
+		}
+
+		void hit() {
+			hits.incrementAndGet();
+		}
+
+		void miss() {
+			misses.incrementAndGet();
+		}
+
+		void error() {
+			errors.incrementAndGet();
+		}
+
+		void checksumFailure() {
+			checksumFailures.incrementAndGet();
+		}
+
+		/**
+		 * @param size
+		 * 		bytes transferred
+		 * @param nanos
+		 * 		duration of the download, including the lookup
+		 */
+		void download(final long size, final long nanos) {
+			bytes.addAndGet(size);
+			downloads.incrementAndGet();
+			downloadNanos.addAndGet(nanos);
+			final long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+			int bucket = 0;
+			while (bucket < BUCKETS.length && millis > BUCKETS[bucket])
+				bucket++;
+			histogram.incrementAndGet(bucket);
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public long getHits() {
+			return hits.get();
+		}
+
+		@Override
+		public long getMisses() {
+			return misses.get();
+		}
+
+		@Override
+		public long getErrors() {
+			return errors.get();
+		}
+
+		@Override
+		public long getChecksumFailures() {
+			return checksumFailures.get();
+		}
+
+		@Override
+		public long getBytes() {
+			return bytes.get();
+		}
+
+		@Override
+		public long getDownloads() {
+			return downloads.get();
+		}
+
+		@Override
+		public long getDownloadTimeMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(downloadNanos.get());
+		}
+
+		@Override
+		public long[] getDownloadTimeBucketsMillis() {
+			return BUCKETS.clone();
+		}
+
+		@Override
+		public long[] getDownloadTimeHistogram() {
+			final long[] counts = new long[histogram.length()];
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] = histogram.get(i);
+			}
+			return counts;
+		}
+
+		@Override
+		public String toString() {
+			return "RepositoryStats[" + name + "]";
+		}
+
+	}
+
+	static class UrlHandlerStats implements UrlHandlerMetricsMXBean {
+
+		// requests per second over the last WINDOW seconds, in a ring buffer indexed by second
+		private final static int WINDOW = 60;
+		private final AtomicLong requests = new AtomicLong();
+		private final AtomicLong localHits = new AtomicLong();
+		// guarded by this
+		private final long[] slots = new long[WINDOW];
+		// guarded by this; second of each slot, on the System.nanoTime() scale
+		private final long[] slotSeconds = new long[WINDOW];
+
+		void request(final boolean local) {
+			requests.incrementAndGet();
+			if (local)
+				localHits.incrementAndGet();
+			final long second = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+			// System.nanoTime() may be negative
+			final int idx = (int) (((second % WINDOW) + WINDOW) % WINDOW);
+			synchronized (this) {
+				if (slotSeconds[idx] != second) {
+					slotSeconds[idx] = second;
+					slots[idx] = 0;
+				}
+				slots[idx]++;
+			}
+		}
+
+		@Override
+		public long getRequests() {
+			return requests.get();
+		}
+
+		@Override
+		public synchronized double getRequestRate() {
+			final long now = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+			long cnt = 0;
+			for (int i = 0; i < WINDOW; i++) {
+				if (now - slotSeconds[i] < WINDOW)
+					cnt += slots[i];
+			}
+			return cnt / (double) WINDOW;
+		}
+
+		@Override
+		public long getLocalHits() {
+			return localHits.get();
+		}
+
+		@Override
+		public double getLocalHitRatio() {
+			final long r = requests.get();
+			return r == 0 ? 0 : localHits.get() / (double) r;
+		}
+
+	}
+
+	static class StartupStats implements StartupMetricsMXBean {
+
+		// guarded by this
+		private final Map<String, Long> phases = new LinkedHashMap<>();
+		// guarded by this
+		private long start = System.nanoTime();
+		// guarded by this
+		private long totalMillis = -1;
+		// guarded by this
+		private int bundles;
+
+		/**
+		 * Resets the statistics of the previous start.
+		 * @return
+		 * 		start time in ns
+		 */
+		synchronized long begin() {
+			phases.clear();
+			totalMillis = -1;
+			bundles = 0;
+			start = System.nanoTime();
+			return start;
+		}
+
+		/**
+		 * Records the duration of a phase, and adds it to the startup trace.
+		 * @param phase
+		 * @param startNanos
+		 * 		start time of the phase, as returned by {@link System#nanoTime()}
+		 * @return
+		 * 		the current time, i.e. the start time of the next phase
+		 */
+		synchronized long phase(final String phase, final long startNanos) {
+			final long now = System.nanoTime();
+			final Long previous = phases.get(phase);
+			phases.put(phase, (previous != null ? previous : 0) + TimeUnit.NANOSECONDS.toMillis(now - startNanos));
+			StartupTrace.span(phase, "phase", startNanos, now, null);
+			return now;
+		}
+
+		synchronized void end(final int bundles) {
+			this.bundles = bundles;
+			this.totalMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		}
+
+		@Override
+		public synchronized Map<String, Long> getPhaseMillis() {
+			return new LinkedHashMap<>(phases);
+		}
+
+		@Override
+		public synchronized long getTotalMillis() {
+			return totalMillis;
+		}
+
+		@Override
+		public synchronized int getBundles() {
+			return bundles;
+		}
+
+	}
+
+}
@@ -0,0 +1,144 @@
+/**
+ * Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.drivers.maven.resolver.impl;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers which remote repositories do not host an artifact. Entries expire after 
+ * a configurable time to live, and are persisted in a file next to the local repository,
+ * one entry per line: timestamp, repository URL and artifact coordinates, separated by tabs.
+ */
+class NegativeCache {
+
+	private final Path file;
+	private final long ttl;
+	private final boolean ignoreExisting;
+	// guarded by this
+	private final Map<String, Long> misses = new HashMap<>();
+	// guarded by this; entries removed since the last flush
+	private final Set<String> removed = new HashSet<>();
+	// guarded by this
+	private boolean dirty;
+
+	/**
+	 * @param file
+	 * @param ttl
+	 * 		time to live in ms; if not positive, the cache is disabled
+	 * @param ignoreExisting
+	 * 		if true, persisted entries are not used for lookups, but may be overwritten
+	 */
+	NegativeCache(Path file, long ttl, boolean ignoreExisting) {
+		this.file = file;
+		this.ttl = ttl;
+		this.ignoreExisting = ignoreExisting;
+		if (ttl > 0 && !ignoreExisting)
+			read(file, misses, System.currentTimeMillis() - ttl);
+	}
+
+	synchronized boolean isMiss(final String repoUrl, final MavenArtifact artifact) {
+		if (ttl <= 0)
+			return false;
+		final Long timestamp = misses.get(key(repoUrl, artifact));
+		return timestamp != null && System.currentTimeMillis() - timestamp < ttl;
+	}
+
+	synchronized void addMiss(final String repoUrl, final MavenArtifact artifact) {
+		if (ttl <= 0)
+			return;
+		final String key = key(repoUrl, artifact);
+		misses.put(key, System.currentTimeMillis());
+		removed.remove(key);
+		dirty = true;
+	}
+
+	synchronized void removeMiss(final String repoUrl, final MavenArtifact artifact) {
+		if (ttl <= 0)
+			return;
+		final String key = key(repoUrl, artifact);
+		if (misses.remove(key) != null || ignoreExisting) {
+			removed.add(key);
+			dirty = true;
+		}
+	}
+
+	/**
+	 * Writes the cache to disk, merged with entries added concurrently by other instances.
+	 */
+	synchronized void flush() {
+		if (!dirty)
+			return;
+		final long oldest = System.currentTimeMillis() - ttl;
+		final Map<String, Long> merged = new HashMap<>();
+		read(file, merged, oldest);
+		merged.keySet().removeAll(removed);
+		for (Map.Entry<String, Long> entry : misses.entrySet()) {
+			final Long existing = merged.get(entry.getKey());
+			if (entry.getValue() >= oldest && (existing == null || existing < entry.getValue()))
+				merged.put(entry.getKey(), entry.getValue());
+		}
+		try {
+			LocalMavenRepo.writeAtomically(file, new LocalMavenRepo.FileContent() {
+
+				@Override
+				public void write(final BufferedWriter writer) throws IOException {
+					for (Map.Entry<String, Long> entry : merged.entrySet()) {
+						writer.write(entry.getValue() + "\t" + entry.getKey());
+						writer.newLine();
+					}
+				}
+			});
+			removed.clear();
+			dirty = false;
+		} catch (IOException e) {
+			MavenResolver.warn("Failed to persist negative lookup cache " + file, e);
+		}
+	}
+
+	private static void read(final Path file, final Map<String, Long> target, final long oldest) {
+		if (!Files.isRegularFile(file))
+			return;
+		try (final BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				final int idx = line.indexOf('\t');
+				if (idx <= 0)
+					continue;
+				try {
+					final long timestamp = Long.parseLong(line.substring(0, idx));
+					if (timestamp >= oldest)
+						target.put(line.substring(idx + 1), timestamp);
+				} catch (NumberFormatException ignore) {}
+			}
+		} catch (IOException e) {
+			MavenResolver.warn("Failed to read negative lookup cache " + file, e);
+		}
+	}
+
+	private static String key(final String repoUrl, final MavenArtifact artifact) {
+		return repoUrl + "\t" + artifact.getCoordinates();
+	}
+
+}
@@ -0,0 +1,41 @@
+/**
+ * Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.drivers.maven.resolver.impl;
+
+/**
+ * A previously interrupted download, kept as a .part file in the local repository.
+ */
+class PartialDownload {
+
+	// number of bytes already downloaded
+	final long length;
+	// URL of the repository the bytes have been downloaded from
+	final String repository;
+	// ETag or Last-Modified value of the original response; may be null
+	final String validator;
+
+	PartialDownload(long length, String repository, String validator) {
+		this.length = length;
+		this.repository = repository;
+		this.validator = validator;
+	}
+
+	@Override
+	public String toString() {
+		return "PartialDownload: " + length + " bytes from " + repository;
+	}
+
+}
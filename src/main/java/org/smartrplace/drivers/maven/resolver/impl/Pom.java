@@ -0,0 +1,273 @@
+/**
+ * Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.drivers.maven.resolver.impl;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * The parts of a Maven pom relevant for dependency resolution.
+ */
+class Pom {
+
+	final String groupId;
+	final String artifactId;
+	final String version;
+	// may be null
+	final MavenArtifact parent;
+	final Map<String, String> properties;
+	final List<Dependency> dependencyManagement;
+	final List<Dependency> dependencies;
+
+	Pom(String groupId, String artifactId, String version, MavenArtifact parent, Map<String, String> properties,
+			List<Dependency> dependencyManagement, List<Dependency> dependencies) {
+		this.groupId = groupId;
+		this.artifactId = artifactId;
+		this.version = version;
+		this.parent = parent;
+		this.properties = Collections.unmodifiableMap(properties);
+		this.dependencyManagement = Collections.unmodifiableList(dependencyManagement);
+		this.dependencies = Collections.unmodifiableList(dependencies);
+	}
+
+	/**
+	 * Parses the pom file. Group id and version are inherited from the parent, if not specified,
+	 * but properties are not interpolated.
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	static Pom parse(final Path file) throws IOException {
+		final Document document;
+		try (final BufferedInputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+			final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+			factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+			factory.setExpandEntityReferences(false);
+			document = factory.newDocumentBuilder().parse(in);
+		} catch (ParserConfigurationException | SAXException e) {
+			throw new IOException("Invalid pom " + file, e);
+		}
+		final Node project = getChild(document, "project");
+		if (project == null)
+			throw new IOException("Invalid pom " + file + ": project element missing");
+		final Node parentNode = getChild(project, "parent");
+		MavenArtifact parent = null;
+		if (parentNode != null) {
+			parent = new MavenArtifact(getText(parentNode, "groupId"), getText(parentNode, "artifactId"), getText(parentNode, "version"), 4, true);
+			if (parent.getGroupId() == null || parent.getArtifactId() == null || parent.getVersion() == null)
+				throw new IOException("Invalid parent in pom " + file);
+		}
+		String groupId = getText(project, "groupId");
+		if (groupId == null && parent != null)
+			groupId = parent.getGroupId();
+		String version = getText(project, "version");
+		if (version == null && parent != null)
+			version = parent.getVersion();
+		final Map<String, String> properties = new HashMap<>();
+		final Node propertiesNode = getChild(project, "properties");
+		if (propertiesNode != null) {
+			final NodeList nl = propertiesNode.getChildNodes();
+			for (int i = 0; i < nl.getLength(); i++) {
+				final Node n = nl.item(i);
+				if (n.getNodeType() == Node.ELEMENT_NODE)
+					properties.put(n.getNodeName(), n.getTextContent().trim());
+			}
+		}
+		final Node depMgmtNode = getChild(project, "dependencyManagement");
+		final List<Dependency> dependencyManagement = parseDependencies(depMgmtNode != null ? getChild(depMgmtNode, "dependencies") : null);
+		final List<Dependency> dependencies = parseDependencies(getChild(project, "dependencies"));
+		return new Pom(groupId, getText(project, "artifactId"), version, parent, properties, dependencyManagement, dependencies);
+	}
+
+	private static List<Dependency> parseDependencies(final Node dependenciesNode) {
+		if (dependenciesNode == null)
+			return Collections.emptyList();
+		final List<Dependency> dependencies = new ArrayList<>();
+		final NodeList nl = dependenciesNode.getChildNodes();
+		for (int i = 0; i < nl.getLength(); i++) {
+			final Node n = nl.item(i);
+			if (n.getNodeType() != Node.ELEMENT_NODE || !"dependency".equals(n.getNodeName()))
+				continue;
+			final List<String> exclusions = new ArrayList<>();
+			final Node exclusionsNode = getChild(n, "exclusions");
+			if (exclusionsNode != null) {
+				final NodeList nl2 = exclusionsNode.getChildNodes();
+				for (int j = 0; j < nl2.getLength(); j++) {
+					final Node e = nl2.item(j);
+					if (e.getNodeType() != Node.ELEMENT_NODE || !"exclusion".equals(e.getNodeName()))
+						continue;
+					exclusions.add(getText(e, "groupId") + ":" + getText(e, "artifactId"));
+				}
+			}
+			dependencies.add(new Dependency(getText(n, "groupId"), getText(n, "artifactId"), getText(n, "version"),
+					getText(n, "type"), getText(n, "classifier"), getText(n, "scope"), "true".equals(getText(n, "optional")), exclusions));
+		}
+		return dependencies;
+	}
+
+	private static Node getChild(final Node parent, final String name) {
+		final NodeList nl = parent.getChildNodes();
+		for (int i = 0; i < nl.getLength(); i++) {
+			final Node n = nl.item(i);
+			if (n.getNodeType() == Node.ELEMENT_NODE && name.equals(n.getNodeName()))
+				return n;
+		}
+		return null;
+	}
+
+	/**
+	 * @return
+	 * 		the trimmed text content of the child element, or null if it does not exist or is empty
+	 */
+	private static String getText(final Node parent, final String name) {
+		final Node n = getChild(parent, name);
+		if (n == null)
+			return null;
+		final String text = n.getTextContent().trim();
+		return text.isEmpty() ? null : text;
+	}
+
+	@Override
+	public String toString() {
+		return "Pom: " + groupId + "/" + artifactId + "/" + version;
+	}
+
+	static class Dependency {
+
+		final String groupId;
+		final String artifactId;
+		// may be null
+		final String version;
+		// may be null, defaults to jar
+		final String type;
+		// may be null
+		final String classifier;
+		// may be null, defaults to compile
+		final String scope;
+		final boolean optional;
+		// groupId:artifactId, either of which may be *
+		final List<String> exclusions;
+
+		Dependency(String groupId, String artifactId, String version, String type, String classifier,
+				String scope, boolean optional, List<String> exclusions) {
+			this.groupId = groupId;
+			this.artifactId = artifactId;
+			this.version = version;
+			this.type = type;
+			this.classifier = classifier;
+			this.scope = scope;
+			this.optional = optional;
+			this.exclusions = Collections.unmodifiableList(exclusions);
+		}
+
+		/**
+		 * Dependencies with equal keys override each other in dependency management and inheritance.
+		 */
+		String getKey() {
+			return groupId + ":" + artifactId + ":" + (type == null ? "jar" : type) + (classifier == null ? "" : ":" + classifier);
+		}
+
+		/**
+		 * @return
+		 * 		a copy of this dependency, with properties replaced and missing values taken from the managed dependency
+		 */
+		Dependency resolve(final Map<String, String> properties, final Dependency managed) {
+			final List<String> exclusions;
+			if (managed != null && this.exclusions.isEmpty()) {
+				exclusions = managed.exclusions;
+			} else {
+				exclusions = new ArrayList<>(this.exclusions.size());
+				for (String e : this.exclusions) {
+					exclusions.add(interpolate(e, properties));
+				}
+			}
+			return new Dependency(interpolate(groupId, properties), interpolate(artifactId, properties),
+					interpolate(version != null || managed == null ? version : managed.version, properties),
+					interpolate(type, properties), interpolate(classifier, properties),
+					interpolate(scope != null || managed == null ? scope : managed.scope, properties),
+					optional, exclusions);
+		}
+
+		@Override
+		public String toString() {
+			return "Dependency: " + groupId + "/" + artifactId + "/" + version;
+		}
+
+	}
+
+	/**
+	 * Replaces ${property} expressions, including nested ones; unknown properties are left unchanged.
+	 */
+	static String interpolate(String value, final Map<String, String> properties) {
+		if (value == null || value.indexOf("${") < 0)
+			return value;
+		for (int depth = 0; depth < 10; depth++) {
+			final StringBuilder sb = new StringBuilder();
+			int start = 0;
+			int idx;
+			boolean replaced = false;
+			while ((idx = value.indexOf("${", start)) >= 0) {
+				final int end = value.indexOf('}', idx);
+				if (end < 0)
+					break;
+				final String replacement = properties.get(value.substring(idx + 2, end));
+				sb.append(value, start, idx);
+				if (replacement != null) {
+					sb.append(replacement);
+					replaced = true;
+				} else {
+					sb.append(value, idx, end + 1);
+				}
+				start = end + 1;
+			}
+			sb.append(value.substring(start));
+			value = sb.toString();
+			if (!replaced)
+				break;
+		}
+		return value;
+	}
+
+	/**
+	 * @return
+	 * 		a map with the dependencies by their keys, in the order of the list
+	 */
+	static Map<String, Dependency> byKey(final List<Dependency> dependencies) {
+		final Map<String, Dependency> map = new LinkedHashMap<>(dependencies.size());
+		for (Dependency d : dependencies) {
+			map.put(d.getKey(), d);
+		}
+		return map;
+	}
+
+}
@@ -15,16 +15,101 @@
  */
 package org.smartrplace.drivers.maven.resolver.impl;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.osgi.framework.BundleContext;
+
 class Properties {
 
 	final static String INIT_DIR_PROPERTY = "org.smartrplace.maven.resolver.init_dir";
 	final static String REPOSITORIES_FILE_PROPERTY = "org.smartrplace.maven.resolver.repos_file";
 	final static String CONFIG_FILE_PROPERTY = "org.smartrplace.maven.resolver.config_path";
+	final static String PARALLELISM_PROPERTY = "org.smartrplace.maven.resolver.parallelism";
+	final static String HEDGE_DELAY_PROPERTY = "org.smartrplace.maven.resolver.hedge_delay";
+	final static String NEGATIVE_CACHE_TTL_PROPERTY = "org.smartrplace.maven.resolver.negative_cache_ttl";
+	final static String NEGATIVE_CACHE_IGNORE_PROPERTY = "org.smartrplace.maven.resolver.negative_cache_ignore";
+	final static String STATE_DIR_PROPERTY = "org.smartrplace.maven.resolver.state_dir";
+	final static String LOCK_FILE_PROPERTY = "org.smartrplace.maven.resolver.lock_file";
+	final static String INSTALL_MODE_PROPERTY = "org.smartrplace.maven.resolver.install_mode";
+	final static String START_PARALLELISM_PROPERTY = "org.smartrplace.maven.resolver.start_parallelism";
+	final static String VERIFY_PROPERTY = "org.smartrplace.maven.resolver.verify";
+	final static String TRANSITIVE_PROPERTY = "org.smartrplace.maven.resolver.transitive";
+	final static String TRANSITIVE_SCOPES_PROPERTY = "org.smartrplace.maven.resolver.transitive_scopes";
+	final static String RECONCILE_PROPERTY = "org.smartrplace.maven.resolver.reconcile";
+	final static String TRACE_PROPERTY = "org.smartrplace.maven.resolver.trace";
+	final static String ADAPTIVE_ORDER_PROPERTY = "org.smartrplace.maven.resolver.adaptive_order";
+	final static String ADAPTIVE_ORDER_HALF_LIFE_PROPERTY = "org.smartrplace.maven.resolver.adaptive_order_half_life";
+	final static String METADATA_TTL_PROPERTY = "org.smartrplace.maven.resolver.metadata_ttl";
+	final static String URL_CACHE_SIZE_PROPERTY = "org.smartrplace.maven.resolver.url_cache_size";
+	final static String URL_CACHE_TTL_PROPERTY = "org.smartrplace.maven.resolver.url_cache_ttl";
+	final static String DOWNLOAD_RETRIES_PROPERTY = "org.smartrplace.maven.resolver.download_retries";
+	final static String HTTP_MAX_CONNECTIONS_PER_ROUTE_PROPERTY = "org.smartrplace.maven.resolver.http.max_connections_per_route";
+	final static String HTTP_MAX_CONNECTIONS_PROPERTY = "org.smartrplace.maven.resolver.http.max_connections";
+	final static String HTTP_CONNECT_TIMEOUT_PROPERTY = "org.smartrplace.maven.resolver.http.connect_timeout";
+	final static String HTTP_SOCKET_TIMEOUT_PROPERTY = "org.smartrplace.maven.resolver.http.socket_timeout";
+	final static String HTTP_CONNECTION_REQUEST_TIMEOUT_PROPERTY = "org.smartrplace.maven.resolver.http.connection_request_timeout";
+	final static String HTTP_KEEP_ALIVE_PROPERTY = "org.smartrplace.maven.resolver.http.keep_alive";
+	final static String HTTP_IDLE_TIMEOUT_PROPERTY = "org.smartrplace.maven.resolver.http.idle_timeout";
 
 	final static String INIT_DIR_DEFAULT = "init";
 	final static String REPOSITORIES_FILE_DEFAULT = "config/repos.properties";
 	final static String CONFIG_FILE_DEFAULT = "config/config.xml";
+	final static String STATE_DIR_DEFAULT = ".maven-resolver";
+	final static String INSTALL_MODE_REFERENCE = "reference";
+	final static String TRANSITIVE_SCOPES_DEFAULT = "compile,runtime";
+	final static int PARALLELISM_DEFAULT = 4;
+	final static int HEDGE_DELAY_DEFAULT = -1;
+	final static long NEGATIVE_CACHE_TTL_DEFAULT = 24 * 60 * 60 * 1000L;
+	final static int DOWNLOAD_RETRIES_DEFAULT = 3;
+	final static long ADAPTIVE_ORDER_HALF_LIFE_DEFAULT = 7 * 24 * 60 * 60 * 1000L;
+	final static long METADATA_TTL_DEFAULT = 60 * 60 * 1000L;
+	final static int URL_CACHE_SIZE_DEFAULT = 256;
+	final static long URL_CACHE_TTL_DEFAULT = 60 * 1000L;
+	final static int HTTP_CONNECT_TIMEOUT_DEFAULT = 10000;
+	final static int HTTP_SOCKET_TIMEOUT_DEFAULT = 30000;
+	final static int HTTP_CONNECTION_REQUEST_TIMEOUT_DEFAULT = 60000;
+	final static long HTTP_KEEP_ALIVE_DEFAULT = 30000;
+	final static long HTTP_IDLE_TIMEOUT_DEFAULT = 30000;
+
+	/**
+	 * @return
+	 * 		the folder for state that survives clean starts
+	 */
+	static Path getStateDir(final BundleContext ctx) {
+		final String stateDir = ctx.getProperty(STATE_DIR_PROPERTY);
+		return Paths.get(stateDir != null ? stateDir : STATE_DIR_DEFAULT);
+	}
+
+	static int getInt(final BundleContext ctx, final String property, final int defaultValue) {
+		final String value = ctx.getProperty(property);
+		if (value == null)
+			return defaultValue;
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			MavenResolver.warn("Invalid value for property " + property + ": " + value + ", using default " + defaultValue);
+			return defaultValue;
+		}
+	}
 
+	static long getLong(final BundleContext ctx, final String property, final long defaultValue) {
+		final String value = ctx.getProperty(property);
+		if (value == null)
+			return defaultValue;
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			MavenResolver.warn("Invalid value for property " + property + ": " + value + ", using default " + defaultValue);
+			return defaultValue;
+		}
+	}
 
+	static boolean getBoolean(final BundleContext ctx, final String property, final boolean defaultValue) {
+		final String value = ctx.getProperty(property);
+		if (value == null)
+			return defaultValue;
+		return Boolean.parseBoolean(value.trim());
+	}
 
 }
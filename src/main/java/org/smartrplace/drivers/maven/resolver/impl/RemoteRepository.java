@@ -15,35 +15,241 @@
  */
 package org.smartrplace.drivers.maven.resolver.impl;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.URL;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
+import org.smartrplace.drivers.maven.resolver.impl.LocalMavenRepo.ChecksumMismatchException;
 import org.smartrplace.drivers.maven.resolver.impl.checksums.Checksums;
 
 class RemoteRepository implements Repository {
 
+	private final static int MAX_POM_SIZE = 4 * 1024 * 1024;
 	private final Client client;
 	private final URL url;
+	private final NegativeCache negativeCache;
+	private final ExecutorService checksumExec;
+	// may be null
+	private final RepositoryRanking ranking;
+	// the checksum algorithm supported by this repository; null if unknown
+	private volatile String checksumAlgo;
+	private final Metrics.RepositoryStats stats;
 
-	RemoteRepository(URL url, Client client) {
+	/**
+	 * @param url
+	 * @param client
+	 * @param negativeCache
+	 * @param checksumExec
+	 * @param ranking
+	 * 		receives the outcome of all lookups; may be null
+	 */
+	RemoteRepository(URL url, Client client, NegativeCache negativeCache, ExecutorService checksumExec, RepositoryRanking ranking) {
 		this.url = url;
+		this.ranking = ranking;
 		this.client = client;
+		this.negativeCache = negativeCache;
+		this.checksumExec = checksumExec;
+		this.stats = Metrics.repository(url.toString());
 	}
 
+	/**
+	 * The checksum files are requested concurrently with the artifact itself. Once a checksum 
+	 * algorithm has been found to be supported by the repository, only this one is requested
+	 * for subsequent artifacts.
+	 */
 	@Override
-	public ResolutionResult resolve(MavenArtifact artifact) throws IOException {
-		final InputStream stream = client.download(url.toString(), artifact);
-		if (artifact == null)
-			return null;
-		for (String algo : Checksums.getAlgos()) {
-			final InputStream in = client.download(url.toString(), artifact, algo);
-			if (in != null) {
-				return new ResolutionResult(stream, algo, in);
+	public ResolutionResult resolve(final MavenArtifact artifact) throws IOException {
+		return resolve(artifact, null);
+	}
+
+	/**
+	 * @param artifact
+	 * @param partial
+	 * 		a partial download to be resumed; may be null
+	 * @return
+	 * @throws IOException
+	 */
+	ResolutionResult resolve(final MavenArtifact artifact, PartialDownload partial) throws IOException {
+		// only resume downloads from the same repository, otherwise the file may differ
+		if (partial != null && !url.toString().equals(partial.repository))
+			partial = null;
+		final String knownAlgo = this.checksumAlgo;
+		final List<String> algos = knownAlgo != null ? Collections.singletonList(knownAlgo) : new ArrayList<>(Checksums.getAlgos());
+		final List<Future<String>> checksums = new ArrayList<>(algos.size());
+		for (final String algo : algos) {
+			checksums.add(checksumExec.submit(new Callable<String>() {
+
+				@Override
+				public String call() throws Exception {
+					return client.downloadChecksum(url.toString(), artifact, algo);
+				}
+			}));
+		}
+		Client.Download stream = null;
+		try {
+			final long start = System.nanoTime();
+			try {
+				stream = client.download(url.toString(), artifact, partial);
+			} catch (IOException e) {
+				if (!ResolverChain.isInterrupt(e)) {
+					stats.error();
+					if (ranking != null)
+						ranking.lookup(url.toString(), artifact, false, -1);
+				}
+				throw e;
+			}
+			if (ranking != null)
+				ranking.lookup(url.toString(), artifact, stream != null, System.nanoTime() - start);
+			if (stream == null) {
+				stats.miss();
+				negativeCache.addMiss(url.toString(), artifact);
+				return null;
+			}
+			stats.hit();
+			negativeCache.removeMiss(url.toString(), artifact);
+			for (int i = 0; i < algos.size(); i++) {
+				final String checksum = getChecksum(checksums.get(i), algos.get(i), artifact);
+				if (checksum != null) {
+					this.checksumAlgo = algos.get(i);
+					final ResolutionResult result = new ResolutionResult(stream, algos.get(i), checksum, stream.offset, stream.validator, url.toString(), stats);
+					stream = null;
+					return result;
+				}
+			}
+			if (knownAlgo != null) {
+				// the preferred algorithm is not available for this artifact
+				this.checksumAlgo = null;
+				for (String algo : Checksums.getAlgos()) {
+					if (algo.equals(knownAlgo))
+						continue;
+					final String checksum = getChecksum(algo, artifact);
+					if (checksum != null) {
+						final ResolutionResult result = new ResolutionResult(stream, algo, checksum, stream.offset, stream.validator, url.toString(), stats);
+						stream = null;
+						return result;
+					}
+				}
+			}
+			// no checksum available
+			if (stream.offset > 0 && partial.validator == null) {
+				// neither a validator nor a checksum ensures that the partial file matches; start over
+				MavenResolver.debug("Not resuming download of {} from {}, cannot be validated", artifact, url);
+				Client.closeSmoothly(stream);
+				stream = null;
+				stream = client.download(url.toString(), artifact);
+				if (stream == null)
+					return null;
+			}
+			final ResolutionResult result = new ResolutionResult(stream, null, null, stream.offset, stream.validator, url.toString(), stats);
+			stream = null;
+			return result;
+		} finally {
+			Client.closeSmoothly(stream);
+			for (Future<String> f : checksums) {
+				f.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * Downloads the pom of the artifact and verifies it against the checksum provided by the repository, if any.
+	 * @param artifact
+	 * @return
+	 * 		the pom content, or null if the repository does not host the pom
+	 * @throws ChecksumMismatchException
+	 * @throws IOException
+	 */
+	byte[] resolvePom(final MavenArtifact artifact) throws IOException {
+		final byte[] pom;
+		final long start = System.nanoTime();
+		try (final Client.Download stream = client.downloadFile(url.toString(), artifact, "pom")) {
+			if (ranking != null)
+				ranking.lookup(url.toString(), artifact, stream != null, System.nanoTime() - start);
+			if (stream == null)
+				return null;
+			pom = readFully(stream, artifact);
+		}
+		final String knownAlgo = this.checksumAlgo;
+		final List<String> algos = new ArrayList<>(Checksums.getAlgos());
+		if (knownAlgo != null) {
+			algos.remove(knownAlgo);
+			algos.add(0, knownAlgo);
+		}
+		for (String algo : algos) {
+			final String checksum;
+			try {
+				checksum = client.downloadChecksum(url.toString(), artifact, "pom", algo);
+			} catch (IOException e) {
+				MavenResolver.debug("Failed to download {} checksum for pom of {}: {}", algo, artifact, e);
+				continue;
 			}
+			if (checksum == null)
+				continue;
+			final MessageDigest digest = Checksums.getValidator(algo).newDigest();
+			digest.update(pom);
+			if (!Checksums.matches(digest.digest(), checksum)) {
+				stats.checksumFailure();
+				throw new ChecksumMismatchException("Pom of " + artifact + " from " + url + ": checksums do not match!");
+			}
+			break;
+		}
+		return pom;
+	}
+
+	private static byte[] readFully(final InputStream in, final MavenArtifact artifact) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+			if (out.size() > MAX_POM_SIZE)
+				throw new IOException("Pom of " + artifact + " exceeds the maximum size of " + MAX_POM_SIZE + " bytes");
+		}
+		return out.toByteArray();
+	}
+
+	private static String getChecksum(final Future<String> future, final String algo, final MavenArtifact artifact) throws InterruptedIOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while downloading checksum for " + artifact);
+		} catch (ExecutionException e) {
+			MavenResolver.debug("Failed to download {} checksum for {}: {}", algo, artifact, e.getCause());
+			return null;
 		}
-		// no checksum available
-		return new ResolutionResult(stream);
+	}
+
+	private String getChecksum(final String algo, final MavenArtifact artifact) {
+		try {
+			return client.downloadChecksum(url.toString(), artifact, algo);
+		} catch (IOException | RuntimeException e) {
+			MavenResolver.debug("Failed to download {} checksum for {}: {}", algo, artifact, e);
+			return null;
+		}
+	}
+
+	/**
+	 * @param artifact
+	 * @return
+	 * 		true if the repository is known not to host the artifact
+	 */
+	boolean isKnownMiss(MavenArtifact artifact) {
+		return negativeCache.isMiss(url.toString(), artifact);
+	}
+
+	URL getUrl() {
+		return url;
 	}
 
 	@Override
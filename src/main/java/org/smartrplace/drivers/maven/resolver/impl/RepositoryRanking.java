@@ -0,0 +1,367 @@
+/**
+ * Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.drivers.maven.resolver.impl;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.osgi.framework.BundleContext;
+
+/**
+ * Statistics on the remote repositories, used to query the repository that most likely hosts
+ * an artifact, and answers fastest, first. For each repository it tracks the success rate per 
+ * groupId prefix (the first two segments of the groupId), the median latency of recent lookups 
+ * and the download throughput. Repositories are ordered by the ratio of success probability 
+ * to expected cost of a request; without any statistics, this preserves the configured order.<br>
+ * All counts decay exponentially with a configurable half life, and latency samples expire after four half lives, 
+ * so that the statistics of a repository converge back to neutral values if it has not been 
+ * asked for some time.<br>
+ * The statistics are persisted in the bundle data area, one tab-separated entry per line:
+ * <code>prefix &lt;url&gt; &lt;prefix&gt; &lt;hits&gt; &lt;misses&gt; &lt;timestamp&gt;</code>,
+ * <code>latency &lt;url&gt; &lt;timestamp&gt; &lt;ms&gt;</code>, or
+ * <code>throughput &lt;url&gt; &lt;bytes&gt; &lt;ms&gt; &lt;timestamp&gt;</code>. 
+ * A single instance is shared by all resolver chains of the bundle.
+ */
+class RepositoryRanking {
+
+	final static String FILE_NAME = "repository-ranking";
+	// file path -> instance
+	private final static ConcurrentMap<String, RepositoryRanking> INSTANCES = new ConcurrentHashMap<>();
+	private final static int LATENCY_SAMPLES = 16;
+	// neutral values for repositories without statistics
+	private final static long LATENCY_PRIOR = 100;
+	private final static double PRIOR_BYTES = 100 * 1024;
+	private final static double PRIOR_MILLIS = 100;
+	// typical artifact size, to weigh latency against throughput
+	private final static double ARTIFACT_SIZE = 256 * 1024;
+	// null if the statistics are not persisted
+	private final Path file;
+	private final long halfLife;
+	// guarded by this; repository URL -> statistics
+	private final Map<String, Stats> stats = new HashMap<>();
+	// guarded by this
+	private boolean dirty;
+
+	private RepositoryRanking(Path file, long halfLife) {
+		this.file = file;
+		this.halfLife = halfLife;
+		if (file != null)
+			read();
+	}
+
+	/**
+	 * @param ctx
+	 * @return
+	 * 		the shared instance, or null if the adaptive order is disabled
+	 */
+	static RepositoryRanking get(final BundleContext ctx) {
+		if (!Properties.getBoolean(ctx, Properties.ADAPTIVE_ORDER_PROPERTY, true))
+			return null;
+		final long halfLife = Properties.getLong(ctx, Properties.ADAPTIVE_ORDER_HALF_LIFE_PROPERTY, 
+				Properties.ADAPTIVE_ORDER_HALF_LIFE_DEFAULT);
+		final File f = ctx.getDataFile(FILE_NAME);
+		final Path file = f == null ? null : f.toPath();
+		final String key = String.valueOf(file);
+		RepositoryRanking ranking = INSTANCES.get(key);
+		if (ranking == null) {
+			ranking = new RepositoryRanking(file, halfLife);
+			final RepositoryRanking existing = INSTANCES.putIfAbsent(key, ranking);
+			if (existing != null)
+				ranking = existing;
+		}
+		return ranking;
+	}
+
+	/**
+	 * @param repos
+	 * @param artifact
+	 * @return
+	 * 		the repositories in the order they should be queried for the artifact
+	 */
+	List<RemoteRepository> order(final List<RemoteRepository> repos, final MavenArtifact artifact) {
+		if (repos.size() <= 1)
+			return repos;
+		final String prefix = prefix(artifact.getGroupId());
+		final long now = System.currentTimeMillis();
+		final Map<RemoteRepository, Double> scores = new IdentityHashMap<>(repos.size());
+		synchronized (this) {
+			for (RemoteRepository r : repos) {
+				scores.put(r, score(stats.get(r.getUrl().toString()), prefix, now));
+			}
+		}
+		final List<RemoteRepository> ordered = new ArrayList<>(repos);
+		// stable, so repositories with equal scores remain in the configured order
+		Collections.sort(ordered, new Comparator<RemoteRepository>() {
+
+			@Override
+			public int compare(RemoteRepository r1, RemoteRepository r2) {
+				return Double.compare(scores.get(r2), scores.get(r1));
+			}
+		});
+		return ordered;
+	}
+
+	/**
+	 * Records the outcome of a lookup.
+	 * @param repoUrl
+	 * @param artifact
+	 * @param hit
+	 * 		false if the repository does not host the artifact, or the request failed
+	 * @param latencyNanos
+	 * 		time until the response has been received; negative if not measured
+	 */
+	synchronized void lookup(final String repoUrl, final MavenArtifact artifact, final boolean hit, final long latencyNanos) {
+		final long now = System.currentTimeMillis();
+		final Stats s = getStats(repoUrl);
+		final String prefix = prefix(artifact.getGroupId());
+		Counts counts = s.prefixes.get(prefix);
+		if (counts == null) {
+			counts = new Counts(0, 0, now);
+			s.prefixes.put(prefix, counts);
+		}
+		counts.decay(now, halfLife);
+		if (hit)
+			counts.hits++;
+		else
+			counts.misses++;
+		if (latencyNanos >= 0)
+			s.addLatency(now, TimeUnit.NANOSECONDS.toMillis(latencyNanos));
+		dirty = true;
+	}
+
+	/**
+	 * Records a completed download.
+	 * @param repoUrl
+	 * @param bytes
+	 * @param nanos
+	 * 		duration of the transfer
+	 */
+	synchronized void download(final String repoUrl, final long bytes, final long nanos) {
+		final long now = System.currentTimeMillis();
+		final Stats s = getStats(repoUrl);
+		final double factor = decayFactor(s.throughputUpdated, now, halfLife);
+		s.bytes = s.bytes * factor + bytes;
+		s.millis = s.millis * factor + nanos / 1000000.;
+		s.throughputUpdated = now;
+		dirty = true;
+	}
+
+	private Stats getStats(final String repoUrl) {
+		Stats s = stats.get(repoUrl);
+		if (s == null) {
+			s = new Stats();
+			stats.put(repoUrl, s);
+		}
+		return s;
+	}
+
+	/**
+	 * Success probability per expected cost of a request in ms, where the cost comprises 
+	 * the latency and, in case of success, the transfer of an artifact of typical size.
+	 */
+	private double score(final Stats s, final String prefix, final long now) {
+		double hits = 0;
+		double misses = 0;
+		long latency = LATENCY_PRIOR;
+		double bytes = 0;
+		double millis = 0;
+		if (s != null) {
+			final Counts counts = s.prefixes.get(prefix);
+			if (counts != null) {
+				final double factor = decayFactor(counts.updated, now, halfLife);
+				hits = counts.hits * factor;
+				misses = counts.misses * factor;
+			}
+			final long median = s.medianLatency(halfLife > 0 ? now - 4 * halfLife : Long.MIN_VALUE);
+			if (median >= 0)
+				latency = median;
+			final double factor = decayFactor(s.throughputUpdated, now, halfLife);
+			bytes = s.bytes * factor;
+			millis = s.millis * factor;
+		}
+		final double p = (hits + 1) / (hits + misses + 2);
+		final double throughput = (bytes + PRIOR_BYTES) / (millis + PRIOR_MILLIS);
+		return p / (Math.max(latency, 1) + p * ARTIFACT_SIZE / throughput);
+	}
+
+	private static double decayFactor(final long updated, final long now, final long halfLife) {
+		if (halfLife <= 0 || now <= updated)
+			return 1;
+		return Math.pow(0.5, (now - updated) / (double) halfLife);
+	}
+
+	/**
+	 * @return
+	 * 		the first two segments of the groupId
+	 */
+	static String prefix(final String groupId) {
+		final int idx = groupId.indexOf('.');
+		if (idx < 0)
+			return groupId;
+		final int idx2 = groupId.indexOf('.', idx + 1);
+		return idx2 < 0 ? groupId : groupId.substring(0, idx2);
+	}
+
+	/**
+	 * Writes the statistics to the bundle data area, if they have changed.
+	 */
+	synchronized void flush() {
+		if (!dirty || file == null)
+			return;
+		try {
+			LocalMavenRepo.writeAtomically(file, new LocalMavenRepo.FileContent() {
+
+				@Override
+				public void write(final BufferedWriter writer) throws IOException {
+					for (Map.Entry<String, Stats> entry : stats.entrySet()) {
+						final String url = entry.getKey();
+						final Stats s = entry.getValue();
+						for (Map.Entry<String, Counts> prefix : s.prefixes.entrySet()) {
+							final Counts c = prefix.getValue();
+							writer.write("prefix\t" + url + "\t" + prefix.getKey() + "\t" + c.hits + "\t" + c.misses + "\t" + c.updated);
+							writer.newLine();
+						}
+						// oldest sample first
+						for (int j = 0; j < s.latencyCount; j++) {
+							final int i = (s.latencyNext - s.latencyCount + j + LATENCY_SAMPLES) % LATENCY_SAMPLES;
+							writer.write("latency\t" + url + "\t" + s.latencyTimes[i] + "\t" + s.latencies[i]);
+							writer.newLine();
+						}
+						if (s.throughputUpdated > 0) {
+							writer.write("throughput\t" + url + "\t" + s.bytes + "\t" + s.millis + "\t" + s.throughputUpdated);
+							writer.newLine();
+						}
+					}
+				}
+			});
+			dirty = false;
+		} catch (IOException e) {
+			MavenResolver.warn("Failed to persist repository statistics " + file, e);
+		}
+	}
+
+	private void read() {
+		if (!Files.isRegularFile(file))
+			return;
+		try (final BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				final String[] cmp = line.split("\t");
+				try {
+					switch (cmp[0]) {
+					case "prefix":
+						getStats(cmp[1]).prefixes.put(cmp[2], new Counts(Double.parseDouble(cmp[3]), Double.parseDouble(cmp[4]), Long.parseLong(cmp[5])));
+						break;
+					case "latency":
+						getStats(cmp[1]).addLatency(Long.parseLong(cmp[2]), Long.parseLong(cmp[3]));
+						break;
+					case "throughput":
+						final Stats s = getStats(cmp[1]);
+						s.bytes = Double.parseDouble(cmp[2]);
+						s.millis = Double.parseDouble(cmp[3]);
+						s.throughputUpdated = Long.parseLong(cmp[4]);
+						break;
+					default:
+					}
+				} catch (RuntimeException ignore) {}
+			}
+		} catch (IOException e) {
+			MavenResolver.warn("Failed to read repository statistics " + file, e);
+		}
+	}
+
+	private static class Stats {
+
+		// groupId prefix -> lookups
+		final Map<String, Counts> prefixes = new HashMap<>();
+		// ring buffer of the most recent latencies in ms
+		final long[] latencies = new long[LATENCY_SAMPLES];
+		// time of each latency sample
+		final long[] latencyTimes = new long[LATENCY_SAMPLES];
+		int latencyCount;
+		int latencyNext;
+		// decayed sums over all downloads
+		double bytes;
+		double millis;
+		long throughputUpdated;
+
+		void addLatency(final long timestamp, final long millis) {
+			latencies[latencyNext] = millis;
+			latencyTimes[latencyNext] = timestamp;
+			latencyNext = (latencyNext + 1) % LATENCY_SAMPLES;
+			if (latencyCount < LATENCY_SAMPLES)
+				latencyCount++;
+		}
+
+		/**
+		 * @param oldest
+		 * 		samples taken before this time are ignored
+		 * @return
+		 * 		the median latency in ms, or -1 if there are no samples
+		 */
+		long medianLatency(final long oldest) {
+			final long[] valid = new long[latencyCount];
+			int cnt = 0;
+			for (int i = 0; i < latencyCount; i++) {
+				if (latencyTimes[i] >= oldest)
+					valid[cnt++] = latencies[i];
+			}
+			if (cnt == 0)
+				return -1;
+			Arrays.sort(valid, 0, cnt);
+			return valid[cnt / 2];
+		}
+
+	}
+
+	private static class Counts {
+
+		double hits;
+		double misses;
+		long updated;
+
+		Counts(double hits, double misses, long updated) {
+			this.hits = hits;
+			this.misses = misses;
+			this.updated = updated;
+		}
+
+		void decay(final long now, final long halfLife) {
+			final double factor = decayFactor(updated, now, halfLife);
+			hits *= factor;
+			misses *= factor;
+			updated = now;
+		}
+
+	}
+
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.drivers.maven.resolver.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps groupIds to the repositories that host them, based on routing rules such as 
+ * <code>org.smartrplace.*</code> (the groupId org.smartrplace and all groupIds below it),
+ * <code>org.ogema.core</code> (this groupId only) or <code>*</code> (all groupIds). 
+ * The rules are stored in a trie over the segments of the groupId; the most specific 
+ * matching rule applies. GroupIds not matched by any rule are assigned the default repositories.
+ * @param <T>
+ * 		repository type
+ */
+class RepositoryRoutes<T> {
+
+	private final List<T> defaults;
+	private final Node<T> root = new Node<>();
+	private boolean empty = true;
+
+	/**
+	 * @param defaults
+	 * 		repositories for groupIds not matched by any rule
+	 */
+	RepositoryRoutes(List<T> defaults) {
+		this.defaults = Collections.unmodifiableList(new ArrayList<>(defaults));
+	}
+
+	/**
+	 * Adds a routing rule. If a rule with the same pattern exists already, the repositories 
+	 * are appended to it.
+	 * @param pattern
+	 * 		a groupId, optionally followed by ".*", or "*"
+	 * @param repos
+	 * @throws IllegalArgumentException if the pattern is invalid
+	 */
+	void add(final String pattern, final List<T> repos) {
+		final boolean wildcard = pattern.equals("*") || pattern.endsWith(".*");
+		final String groupId = pattern.equals("*") ? "" : wildcard ? pattern.substring(0, pattern.length() - 2) : pattern;
+		if (groupId.indexOf('*') >= 0 || groupId.startsWith(".") || groupId.endsWith(".") || groupId.contains("..") 
+				|| (!wildcard && groupId.isEmpty()))
+			throw new IllegalArgumentException("Invalid repository routing pattern " + pattern);
+		Node<T> node = root;
+		int start = 0;
+		while (start < groupId.length()) {
+			int end = groupId.indexOf('.', start);
+			if (end < 0)
+				end = groupId.length();
+			final String segment = groupId.substring(start, end);
+			Node<T> child = node.children.get(segment);
+			if (child == null) {
+				child = new Node<>();
+				node.children.put(segment, child);
+			}
+			node = child;
+			start = end + 1;
+		}
+		List<T> target = wildcard ? node.subtree : node.exact;
+		if (target == null) {
+			target = new ArrayList<>(repos.size());
+			if (wildcard)
+				node.subtree = target;
+			else
+				node.exact = target;
+		}
+		for (T repo : repos) {
+			if (!target.contains(repo))
+				target.add(repo);
+		}
+		empty = false;
+	}
+
+	/**
+	 * @param groupId
+	 * @return
+	 * 		the repositories to be queried for artifacts of the groupId, in the configured order
+	 */
+	List<T> select(final String groupId) {
+		if (empty)
+			return defaults;
+		List<T> match = root.subtree;
+		Node<T> node = root;
+		int start = 0;
+		while (start <= groupId.length()) {
+			int end = groupId.indexOf('.', start);
+			if (end < 0)
+				end = groupId.length();
+			node = node.children.get(groupId.substring(start, end));
+			if (node == null)
+				break;
+			if (end == groupId.length() && node.exact != null)
+				return node.exact;
+			if (node.subtree != null)
+				match = node.subtree;
+			start = end + 1;
+		}
+		return match != null ? match : defaults;
+	}
+
+	/**
+	 * @return
+	 * 		true if no routing rules have been added
+	 */
+	boolean isEmpty() {
+		return empty;
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder();
+		append(root, "", sb);
+		return sb.append("default -> ").append(defaults).toString();
+	}
+
+	private static <T> void append(final Node<T> node, final String prefix, final StringBuilder sb) {
+		if (node.exact != null)
+			sb.append(prefix).append(" -> ").append(node.exact).append(", ");
+		if (node.subtree != null)
+			sb.append(prefix.isEmpty() ? "*" : prefix + ".*").append(" -> ").append(node.subtree).append(", ");
+		for (Map.Entry<String, Node<T>> child : node.children.entrySet()) {
+			append(child.getValue(), prefix.isEmpty() ? child.getKey() : prefix + "." + child.getKey(), sb);
+		}
+	}
+
+	private static class Node<T> {
+
+		final Map<String, Node<T>> children = new HashMap<>(4);
+		// repositories for this groupId only; null if there is no such rule
+		List<T> exact;
+		// repositories for this groupId and all below; null if there is no such rule
+		List<T> subtree;
+
+	}
+
+}
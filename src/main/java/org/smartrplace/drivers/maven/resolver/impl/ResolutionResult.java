@@ -8,23 +8,43 @@ class ResolutionResult implements AutoCloseable {
 	final InputStream result;
 	// may be null
 	final String checksumAlgo;
-	// null if checksumAlgo is null
-	final InputStream checksumInput;
+	// the expected checksum in lower case hex; null if checksumAlgo is null
+	final String checksum;
+	// position of the first byte of result within the artifact; > 0 if a partial download is resumed
+	final long offset;
+	// ETag or Last-Modified value identifying the remote file; may be null
+	final String validator;
+	// URL of the remote repository providing the result; null for the local repository
+	final String repository;
+	// statistics of the repository providing the result; may be null
+	final Metrics.RepositoryStats stats;
 	
 	ResolutionResult(InputStream result) {
 		this(result, null, null);
 	}
 	
-	ResolutionResult(InputStream result, String checksumAlgo, InputStream checksumInput) {
+	ResolutionResult(InputStream result, String checksumAlgo, String checksum) {
+		this(result, checksumAlgo, checksum, 0, null);
+	}
+
+	ResolutionResult(InputStream result, String checksumAlgo, String checksum, long offset, String validator) {
+		this(result, checksumAlgo, checksum, offset, validator, null, null);
+	}
+
+	ResolutionResult(InputStream result, String checksumAlgo, String checksum, long offset, String validator, 
+			String repository, Metrics.RepositoryStats stats) {
 		this.result = Objects.requireNonNull(result);
 		this.checksumAlgo = checksumAlgo;
-		this.checksumInput = checksumInput;
+		this.checksum = checksum;
+		this.offset = offset;
+		this.validator = validator;
+		this.repository = repository;
+		this.stats = stats;
 	}
 	
 	@Override
 	public void close() {
 		Client.closeSmoothly(result);
-		Client.closeSmoothly(checksumInput);
 	}
 	
 }
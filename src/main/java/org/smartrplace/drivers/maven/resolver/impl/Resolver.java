@@ -17,62 +17,525 @@ package org.smartrplace.drivers.maven.resolver.impl;
 
 import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleException;
 
 class Resolver {
 	
-	private final Collection<MavenArtifact> artifacts;
+	// time to wait for running workers in close(), before the repository chain is closed
+	private final static long CLOSE_TIMEOUT_SECONDS = 5;
+	// guarded by this; extended by the transitive dependencies in start(), if requested
+	private Collection<MavenArtifact> artifacts;
 	private final BundleContext ctx;
-	private final ResolverChain chain;
+	private final int parallelism;
+	private final boolean referenceInstall;
+	private final boolean verify;
+	// artifact -> locked entry; empty if no lock file is used
+	private final Map<MavenArtifact, BootLock.Entry> locked;
+	// artifact -> path in the local repository, for all installed artifacts, and for those skipped because 
+	// their bundle was installed already
+	private final Map<MavenArtifact, Path> resolved = new IdentityHashMap<>();
+	// coordinates -> concrete version, for artifacts with dynamic versions
+	private final Map<String, String> versions = new ConcurrentHashMap<>();
+	private final BundleIdentityIndex identities;
+	// coordinates -> bundle identity, for resolved artifacts
+	private final Map<String, BundleIdentityIndex.Identity> resolvedIdentities = new ConcurrentHashMap<>();
+	// bundles installed from the configuration on an earlier start; null on a clean start
+	private final InstalledBundles previous;
+	// groupId:artifactId -> bundle installed from the configuration, including those kept from the previous start
+	private final Map<String, InstalledBundles.Entry> installed = new ConcurrentHashMap<>();
+	// groupId:artifactId -> bundle from the previous start, to be updated if the resolved version differs
+	private final Map<String, Bundle> toUpdate = new ConcurrentHashMap<>();
+	// guarded by this
+	private final List<Bundle> updated = new ArrayList<>();
+	// guarded by this; created lazily, so that a boot from a valid lock file does not touch any repository
+	private ResolverChain chain;
+	// guarded by this; set in close(), after which no new chain is created
+	private boolean closed;
+	private volatile boolean lockViolated;
+	// guarded by this
+	private boolean complete;
+	// guarded by this
+	private boolean dependenciesFailed;
+	// guarded by this; set in start()
+	private List<MavenArtifact> toResolve;
+	// guarded by this; set in start()
+	private List<Future<Path>> futures;
+	// guarded by this; set in start()
+	private ExecutorService exec;
 	
 	Resolver(Collection<MavenArtifact> artifacts, BundleContext ctx) throws IOException {
+		this(artifacts, ctx, null);
+	}
+
+	/**
+	 * @param artifacts
+	 * @param ctx
+	 * @param lock
+	 * 		may be null
+	 * @throws IOException
+	 */
+	Resolver(Collection<MavenArtifact> artifacts, BundleContext ctx, BootLock lock) throws IOException {
+		this(artifacts, ctx, lock, null);
+	}
+
+	/**
+	 * @param artifacts
+	 * @param ctx
+	 * @param lock
+	 * 		may be null
+	 * @param previous
+	 * 		the bundles installed on an earlier start, which are kept, updated or reported as removed
+	 * 		depending on the configuration; null on a clean start
+	 * @throws IOException
+	 */
+	Resolver(Collection<MavenArtifact> artifacts, BundleContext ctx, BootLock lock, InstalledBundles previous) throws IOException {
 		this.artifacts = artifacts;
+		this.previous = previous;
 		this.ctx = ctx;
-		this.chain = new ResolverChain(ctx);
+		this.parallelism = Properties.getInt(ctx, Properties.PARALLELISM_PROPERTY, Properties.PARALLELISM_DEFAULT);
+		this.referenceInstall = Properties.INSTALL_MODE_REFERENCE.equalsIgnoreCase(ctx.getProperty(Properties.INSTALL_MODE_PROPERTY));
+		this.verify = Properties.getBoolean(ctx, Properties.VERIFY_PROPERTY, false);
+		this.identities = new BundleIdentityIndex(LocalMavenRepo.getHome().resolveSibling(BundleIdentityIndex.FILE_NAME));
+		this.locked = new IdentityHashMap<>();
+		if (lock != null) {
+			for (BootLock.Entry e : lock.entries) {
+				locked.put(e.artifact, e);
+			}
+		}
+	}
+
+	private synchronized ResolverChain chain() throws IOException {
+		if (closed)
+			throw new InterruptedIOException("Resolver has been closed");
+		if (chain == null)
+			chain = new ResolverChain(ctx);
+		return chain;
 	}
 	
 	/**
+	 * Artifacts are resolved and downloaded concurrently, but installed in the order
+	 * of the configuration, so that bundle ids remain deterministic.
 	 * @return
 	 */
 	Collection<ResolvedArtifact> resolve() {
-		final Bundle[] bundles = ctx.getBundles();
-		final Map<String, Bundle> bundlesMap = new HashMap<>(bundles.length);
-		for (Bundle b : bundles) {
-			bundlesMap.put(b.getSymbolicName(), b);
+		start();
+		return install();
+	}
+
+	/**
+	 * Starts resolving and downloading the artifacts in the background; 
+	 * call {@link #install()} afterwards. 
+	 */
+	synchronized void start() {
+		if (exec != null)
+			throw new IllegalStateException("Resolution already started");
+		if (locked.isEmpty() && DependencyCollector.isRequested(ctx, artifacts)) {
+			try {
+				artifacts = new DependencyCollector(chain(), ctx).collect(artifacts);
+			} catch (IOException e) {
+				MavenResolver.warn("Failed to resolve transitive dependencies", e);
+				dependenciesFailed = true;
+			}
 		}
-		final List<ResolvedArtifact> newBundles = new ArrayList<>(bundlesMap.size()+2);
+		final Map<String, Bundle> bundlesMap = getInstalledBundles();
+		toResolve = new ArrayList<>(artifacts.size());
 		for (MavenArtifact artifact : artifacts) {
-			final String bsn = artifact.getBundleSymbolicName();
-			if (bundlesMap.containsKey(bsn))
-				continue;
+			if (previous != null) {
+				final String key = InstalledBundles.Entry.getKey(artifact.getGroupId(), artifact.getArtifactId());
+				final InstalledBundles.Entry entry = previous.entries.get(key);
+				final Bundle bundle = entry == null ? null : ctx.getBundle(entry.bundleId);
+				if (bundle != null) {
+					installed.put(key, entry);
+					if (entry.version.equals(artifact.getVersion()) && !Versions.isDynamic(artifact.getVersion()))
+						continue;
+					toUpdate.put(key, bundle);
+					toResolve.add(artifact);
+					continue;
+				}
+			}
 			try {
-				if (chain.resolve(artifact)) {
-					final InputStream in =  chain.resolveLocal(artifact);
-					if (in == null) {
-						MavenResolver.warn("Something went wrong... artifact " + artifact  +" not found");
+				final Path known = getKnownFile(artifact);
+				final BundleIdentityIndex.Identity identity = known == null ? null : getKnownIdentity(artifact);
+				if (identity != null && identity.isInstalled(bundlesMap)) {
+					MavenResolver.debug("Bundle {} already installed, skipping artifact {}", identity, artifact);
+					resolved.put(artifact, known);
+					continue;
+				}
+			} catch (IOException e) {
+				// the resolution will fail as well and report the error 
+			}
+			toResolve.add(artifact);
+		}
+		exec = ResolverExecutors.newPool("maven-resolver-worker", parallelism);
+		futures = submit(toResolve, exec);
+	}
+
+	/**
+	 * Waits for the artifacts to be resolved, and installs them in the order of the configuration.
+	 * Artifacts whose bundle symbolic name, as declared in the manifest, is installed already 
+	 * are skipped. Bundles from a previous start are updated if the resolved version has changed.
+	 * @return
+	 */
+	Collection<ResolvedArtifact> install() {
+		final List<MavenArtifact> toResolve;
+		final List<Future<Path>> futures;
+		final ExecutorService exec;
+		synchronized (this) {
+			if (this.exec == null)
+				throw new IllegalStateException("Resolution not started");
+			toResolve = this.toResolve;
+			futures = this.futures;
+			exec = this.exec;
+		}
+		final Map<String, Bundle> bundlesMap = getInstalledBundles();
+		final List<ResolvedArtifact> newBundles = new ArrayList<>(toResolve.size());
+		boolean complete = true;
+		try {
+			for (int i = 0; i < toResolve.size(); i++) {
+				final MavenArtifact artifact = toResolve.get(i);
+				try {
+					Path path = futures.get(i).get();
+					if (path == null) {
+						complete = false;
+						continue;
+					}
+					final String key = InstalledBundles.Entry.getKey(artifact.getGroupId(), artifact.getArtifactId());
+					final Bundle existing = toUpdate.get(key);
+					if (existing != null && previous.entries.get(key).version.equals(getVersion(artifact))) {
+						MavenResolver.debug("Artifact {} unchanged", artifact);
+						resolved.put(artifact, path);
+						continue;
+					}
+					final BundleIdentityIndex.Identity identity = resolvedIdentities.get(artifact.getCoordinates());
+					if (existing == null && identity != null && identity.isInstalled(bundlesMap)) {
+						MavenResolver.debug("Bundle {} already installed, skipping artifact {}", identity, artifact);
+						resolved.put(artifact, path);
 						continue;
 					}
-					final Bundle b;
-					try (final BufferedInputStream stream = new BufferedInputStream(in)) {
-						b = ctx.installBundle("mvn-init:" + artifact.getGroupId() + "/" + artifact.getArtifactId() + "/" + artifact.getVersion(), stream);
+					final long start = System.nanoTime();
+					Bundle b;
+					try {
+						b = existing != null ? update(existing, path) : install(artifact, path);
+					} catch (NoSuchFileException e) {
+						// stale index entry, the file has been removed from the local repository
+						MavenResolver.debug("Artifact {} no longer available at {}, resolving again", artifact, path);
+						chain().invalidate(artifact);
+						path = resolve(artifact);
+						if (path == null) {
+							complete = false;
+							continue;
+						}
+						b = existing != null ? update(existing, path) : install(artifact, path);
 					}
 					if (b == null)
 						throw new NullPointerException("Bundle is null");
+					StartupTrace.span(artifact.getCoordinates(), existing != null ? "update" : "install", start);
+					if (existing != null) {
+						MavenResolver.debug("Bundle {} updated to {}", b, artifact);
+						synchronized (this) {
+							updated.add(b);
+						}
+					}
 					newBundles.add(new ResolvedArtifact(artifact, b));
+					installed.put(key, new InstalledBundles.Entry(b.getBundleId(), artifact.getGroupId(), artifact.getArtifactId(), getVersion(artifact)));
+					resolved.put(artifact, path);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					complete = false;
+					break;
+				} catch (ExecutionException e) {
+					MavenResolver.warn("Failed to install artifact " + artifact, e.getCause());
+					complete = false;
+					continue;
+				} catch (Exception e) {
+					MavenResolver.warn("Failed to install artifact " + artifact, e);
+					complete = false;
+					continue;
 				}
-			} catch (Exception e) {
-				MavenResolver.warn("Failed to install artifact " + artifact, e);
-				continue;
+			}
+		} finally {
+			close();
+			synchronized (this) {
+				this.complete = complete && !dependenciesFailed;
 			}
 		}
 		return newBundles;
 	}
+
+	/**
+	 * Stops the resolution and releases the worker threads and the repository chain. Called by 
+	 * {@link #install()}; call it explicitly if {@link #start()} has been called but 
+	 * {@link #install()} will not be. Workers still running after a short timeout fail once the 
+	 * chain is closed.
+	 */
+	void close() {
+		final ExecutorService exec;
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+			exec = this.exec;
+		}
+		if (exec != null) {
+			exec.shutdownNow();
+			try {
+				if (!exec.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+					MavenResolver.debug("Resolver workers still running after {} s, closing the repositories", CLOSE_TIMEOUT_SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		identities.flush();
+		synchronized (this) {
+			if (chain != null)
+				chain.close();
+			chain = null;
+		}
+	}
+
+	/**
+	 * @return
+	 * 		the jar file of the artifact, if it is known from the lock file or the local repository index, 
+	 * 		without resolving the artifact
+	 */
+	private Path getKnownFile(final MavenArtifact artifact) throws IOException {
+		if (!locked.isEmpty()) {
+			final BootLock.Entry entry = locked.get(artifact);
+			return entry == null ? null : entry.path;
+		}
+		if (Versions.isDynamic(artifact.getVersion()))
+			return null;
+		return chain().getSha1(artifact, false) == null ? null : chain().resolveLocalUrl(artifact);
+	}
+
+	/**
+	 * @return
+	 * 		the bundle identity of the artifact, if it has been determined on an earlier start, or null
+	 */
+	private BundleIdentityIndex.Identity getKnownIdentity(final MavenArtifact artifact) throws IOException {
+		final String sha1;
+		if (!locked.isEmpty()) {
+			final BootLock.Entry entry = locked.get(artifact);
+			sha1 = entry == null ? null : entry.sha1;
+		} else {
+			sha1 = chain().getSha1(artifact, false);
+		}
+		return sha1 == null ? null : identities.get(sha1);
+	}
+
+	/**
+	 * Determines the bundle identity of a resolved artifact from its manifest, or from the index.
+	 * @param artifact
+	 * @param path
+	 * @param sha1
+	 * 		may be null, if the digest is not known
+	 */
+	private void identify(final MavenArtifact artifact, final Path path, final String sha1) {
+		if (sha1 == null)
+			return;
+		try {
+			resolvedIdentities.put(artifact.getCoordinates(), identities.read(path, sha1));
+		} catch (IOException e) {
+			MavenResolver.warn("Failed to read manifest of " + path, e);
+		}
+	}
+
+	private Map<String, Bundle> getInstalledBundles() {
+		final Bundle[] bundles = ctx.getBundles();
+		final Map<String, Bundle> bundlesMap = new HashMap<>(bundles.length);
+		for (Bundle b : bundles) {
+			bundlesMap.put(b.getSymbolicName(), b);
+		}
+		return bundlesMap;
+	}
+
+	/**
+	 * In reference mode the framework uses the jar file in the local repository in place, 
+	 * otherwise it copies the file into its own cache.
+	 */
+	private Bundle install(final MavenArtifact artifact, final Path path) throws IOException, BundleException {
+		if (referenceInstall) {
+			if (!Files.isRegularFile(path))
+				throw new NoSuchFileException(path.toString());
+			return ctx.installBundle("reference:file:" + path.toAbsolutePath());
+		}
+		try (final BufferedInputStream stream = new BufferedInputStream(Files.newInputStream(path))) {
+			return ctx.installBundle("mvn-init:" + artifact.getGroupId() + "/" + artifact.getArtifactId() + "/" + getVersion(artifact), stream);
+		}
+	}
+
+	private static Bundle update(final Bundle bundle, final Path path) throws IOException, BundleException {
+		try (final BufferedInputStream stream = new BufferedInputStream(Files.newInputStream(path))) {
+			bundle.update(stream);
+		}
+		return bundle;
+	}
+
+	/**
+	 * @return
+	 * 		the concrete version the artifact has been resolved to
+	 */
+	private String getVersion(final MavenArtifact artifact) {
+		final String version = versions.get(artifact.getCoordinates());
+		return version != null ? version : artifact.getVersion();
+	}
+
+	/**
+	 * @return
+	 * 		groupId:artifactId -> bundle, for the bundles installed from the configured artifacts, 
+	 * 		including unchanged bundles from the previous start
+	 */
+	Map<String, InstalledBundles.Entry> getInstalled() {
+		return new HashMap<>(installed);
+	}
+
+	/**
+	 * @return
+	 * 		bundles from the previous start that have been updated by {@link #install()}
+	 */
+	synchronized List<Bundle> getUpdated() {
+		return new ArrayList<>(updated);
+	}
+
+	/**
+	 * @return
+	 * 		bundles from the previous start whose artifacts are no longer configured. Empty if the 
+	 * 		transitive dependencies could not be determined.
+	 */
+	synchronized List<InstalledBundles.Entry> getRemoved() {
+		if (previous == null || dependenciesFailed)
+			return Collections.emptyList();
+		final Set<String> keys = new HashSet<>(artifacts.size());
+		for (MavenArtifact a : artifacts) {
+			keys.add(InstalledBundles.Entry.getKey(a.getGroupId(), a.getArtifactId()));
+		}
+		final List<InstalledBundles.Entry> removed = new ArrayList<>();
+		for (InstalledBundles.Entry e : previous.entries.values()) {
+			if (!keys.contains(e.getKey()))
+				removed.add(e);
+		}
+		return removed;
+	}
+
+	/**
+	 * @return
+	 * 		true if all artifacts have been installed successfully
+	 */
+	synchronized boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * @param configHash
+	 * @param deleteFiles
+	 * @return
+	 * 		a lock file for the last resolution, or null if the resolution was not complete, or if it
+	 * 		was performed from a lock file that is still valid
+	 * @throws IOException 
+	 */
+	synchronized BootLock createLock(final String configHash, final List<Path> deleteFiles) throws IOException {
+		if (!complete || (!locked.isEmpty() && !lockViolated))
+			return null;
+		final List<BootLock.Entry> entries = new ArrayList<>(artifacts.size());
+		for (MavenArtifact artifact : artifacts) {
+			final Path path = resolved.get(artifact);
+			if (path == null) {
+				entries.add(new BootLock.Entry(artifact, null, -1, null));
+				continue;
+			}
+			final BootLock.Entry lockedEntry = locked.get(artifact);
+			if (lockedEntry != null && lockedEntry.path.equals(path))
+				entries.add(lockedEntry);
+			else
+				entries.add(BootLock.Entry.create(artifact, path));
+		}
+		final List<String> deletes = new ArrayList<>(deleteFiles.size());
+		for (Path p : deleteFiles) {
+			deletes.add(p.toString());
+		}
+		return new BootLock(configHash, entries, deletes);
+	}
+
+	/**
+	 * Artifacts with identical coordinates share a single resolution task, so the same 
+	 * file is never downloaded into the local repository twice concurrently.
+	 */
+	private List<Future<Path>> submit(final List<MavenArtifact> artifacts, final ExecutorService exec) {
+		final List<Future<Path>> futures = new ArrayList<>(artifacts.size());
+		final Map<String, Future<Path>> tasks = new HashMap<>(artifacts.size());
+		for (final MavenArtifact artifact : artifacts) {
+			final String key = artifact.getCoordinates();
+			Future<Path> future = tasks.get(key);
+			if (future == null) {
+				future = exec.submit(new Callable<Path>() {
+
+					@Override
+					public Path call() throws Exception {
+						final long start = System.nanoTime();
+						try {
+							return resolve(artifact);
+						} finally {
+							StartupTrace.span(artifact.getCoordinates(), "resolve", start);
+						}
+					}
+				});
+				tasks.put(key, future);
+			}
+			futures.add(future);
+		}
+		return futures;
+	}
+
+	/**
+	 * @return
+	 * 		the path of the artifact in the local repository, or null if it could not be resolved
+	 */
+	private Path resolve(final MavenArtifact artifact) throws IOException {
+		final BootLock.Entry entry = locked.get(artifact);
+		// dynamic versions, such as snapshots, are always resolved again
+		final boolean dynamic = Versions.isDynamic(artifact.getVersion());
+		if (entry != null && !dynamic && (verify ? entry.verify() : entry.isValid())) {
+			identify(artifact, entry.path, entry.sha1);
+			return entry.path;
+		}
+		if (!locked.isEmpty() && !dynamic) {
+			MavenResolver.debug("Lock file entry for {} is not valid, resolving artifact", artifact);
+			lockViolated = true;
+		}
+		final ResolverChain chain = chain();
+		final MavenArtifact concrete = chain.resolveVersion(artifact);
+		if (concrete == null || !chain.resolve(concrete))
+			return null;
+		if (concrete != artifact)
+			versions.put(artifact.getCoordinates(), concrete.getVersion());
+		final Path path = chain.resolveLocalUrl(concrete);
+		if (path == null)
+			MavenResolver.warn("Something went wrong... artifact " + artifact  +" not found");
+		else
+			identify(artifact, path, chain.getSha1(concrete, true));
+		return path;
+	}
 	
 }
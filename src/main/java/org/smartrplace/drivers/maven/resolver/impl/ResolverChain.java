@@ -17,98 +17,305 @@ package org.smartrplace.drivers.maven.resolver.impl;
 
 import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Queue;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.osgi.framework.BundleContext;
+import org.smartrplace.drivers.maven.resolver.impl.LocalMavenRepo.ChecksumMismatchException;
+import org.smartrplace.drivers.maven.resolver.impl.checksums.Checksums;
 
 class ResolverChain {
 
 	private final static String MAVEN_CENTRAL = "http://central.maven.org/maven2";
+	private final static String NEGATIVE_CACHE_FILE = "maven-resolver-misses";
+	// a routing rule in the repositories file: groupId pattern = URLs
+	private final static Pattern ROUTE = Pattern.compile("^([\\w.\\-]+(?:\\.\\*)?|\\*)\\s*=(.*)$");
 	private final LocalMavenRepo local;
-	private final Queue<Repository> chain = new ArrayDeque<>();
+	// all remote repositories, in the configured order
+	private final List<RemoteRepository> remotes = new ArrayList<>();
+	private final RepositoryRoutes<RemoteRepository> routes;
+	private final NegativeCache negativeCache;
+	private final Client client;
+	private final ExecutorService checksumExec;
+	// null if remote repositories are queried sequentially
+	private final ExecutorService lookupExec;
+	// null if remote repositories are queried sequentially
+	private final HedgedLookup hedgedLookup;
+	private final int downloadRetries;
+	private final boolean verify;
+	private final MetadataCache metadata;
+	// null if the repositories are queried in the configured order
+	private final RepositoryRanking ranking;
+	private final Metrics.RepositoryStats localStats = Metrics.repository(Metrics.LOCAL);
 
 	ResolverChain(BundleContext ctx) throws IOException {
 		local = new LocalMavenRepo();
-		chain.add(local);
-		final Client client = new Client();
-		for (URL url : repos(ctx)) {
-			chain.add(new RemoteRepository(url, client));
+		final int parallelism = Properties.getInt(ctx, Properties.PARALLELISM_PROPERTY, Properties.PARALLELISM_DEFAULT);
+		client = new Client(ctx);
+		negativeCache = new NegativeCache(local.homeRepo.resolveSibling(NEGATIVE_CACHE_FILE),
+				Properties.getLong(ctx, Properties.NEGATIVE_CACHE_TTL_PROPERTY, Properties.NEGATIVE_CACHE_TTL_DEFAULT),
+				Properties.getBoolean(ctx, Properties.NEGATIVE_CACHE_IGNORE_PROPERTY, false));
+		checksumExec = ResolverExecutors.newPool("maven-resolver-checksums", 
+				Math.max(1, parallelism) * Checksums.getAlgos().size());
+		ranking = RepositoryRanking.get(ctx);
+		routes = repos(ctx);
+		verify = Properties.getBoolean(ctx, Properties.VERIFY_PROPERTY, false);
+		metadata = new MetadataCache(client, local.homeRepo, 
+				Properties.getLong(ctx, Properties.METADATA_TTL_PROPERTY, Properties.METADATA_TTL_DEFAULT));
+		downloadRetries = Properties.getInt(ctx, Properties.DOWNLOAD_RETRIES_PROPERTY, Properties.DOWNLOAD_RETRIES_DEFAULT);
+		final int hedgeDelay = Properties.getInt(ctx, Properties.HEDGE_DELAY_PROPERTY, Properties.HEDGE_DELAY_DEFAULT);
+		if (hedgeDelay >= 0 && remotes.size() > 1) {
+			lookupExec = ResolverExecutors.newPool("maven-resolver-lookup", Math.max(1, parallelism) * remotes.size());
+			hedgedLookup = new HedgedLookup(lookupExec, hedgeDelay);
+		} else {
+			lookupExec = null;
+			hedgedLookup = null;
 		}
-		MavenResolver.info("Maven repositories: " + chain);
+		MavenResolver.info("Maven repositories: " + local + ", " + remotes);
+		if (!routes.isEmpty())
+			MavenResolver.info("Maven repository routes: " + routes);
 	}
 
-	private List<URL> repos(BundleContext ctx) {
+	/**
+	 * Reads the repositories file, and creates the remote repositories. Each line contains 
+	 * one or more comma-separated repository URLs, optionally preceded by a groupId pattern and "=",
+	 * such as <code>org.smartrplace.*=https://nexus.example.org/repository/releases</code>. 
+	 * Artifacts matching a pattern are only requested from the repositories of the rule, all others
+	 * from the repositories listed without a pattern. A line ending with a backslash is continued
+	 * on the next line.
+	 */
+	private RepositoryRoutes<RemoteRepository> repos(BundleContext ctx) {
 		String reposFile0 = ctx.getProperty(Properties.REPOSITORIES_FILE_PROPERTY);
 		if (reposFile0 == null)
 			reposFile0 = Properties.REPOSITORIES_FILE_DEFAULT;
 		final Path reposFile = Paths.get(reposFile0);
 		if (!Files.exists(reposFile)) {
 			try {
-				return Collections.singletonList(new URL(MAVEN_CENTRAL));
+				return new RepositoryRoutes<>(Collections.singletonList(remote(new URL(MAVEN_CENTRAL))));
 			} catch (MalformedURLException e) {
 				throw new RuntimeException(e);
 			}
 		}
-		final List<URL> urls = new ArrayList<>();
+		final List<RemoteRepository> defaults = new ArrayList<>();
+		// pattern -> repositories
+		final Map<String, List<RemoteRepository>> rules = new LinkedHashMap<>();
 		try (final BufferedReader reader = Files.newBufferedReader(reposFile, StandardCharsets.UTF_8)) {
 			String line;
+			boolean continued = false;
+			// null for the default repositories
+			String pattern = null;
 			while ((line = reader.readLine()) != null) {
 				line = line.trim();
 				if (line.startsWith("#"))
 					continue;
+				if (!continued) {
+					final Matcher m = ROUTE.matcher(line);
+					pattern = m.matches() ? m.group(1) : null;
+					if (pattern != null)
+						line = m.group(2);
+				}
+				continued = line.endsWith("\\");
+				List<RemoteRepository> target = defaults;
+				if (pattern != null) {
+					target = rules.get(pattern);
+					if (target == null) {
+						target = new ArrayList<>();
+						rules.put(pattern, target);
+					}
+				}
 				final String[] entries = line.split(",");
 				for (String entry : entries) {
 					entry = entry.trim();
 					if (entry.endsWith("\\"))
-						entry = entry.substring(0, entry.length()-1);
+						entry = entry.substring(0, entry.length()-1).trim();
 					if (entry.isEmpty())
 						continue;
 					try {
-						urls.add(new URL(entry));
+						target.add(remote(new URL(entry)));
 					} catch (MalformedURLException e) {
 						MavenResolver.warn("Invalid repository URL " + entry);
 					}
 				}
 			}
-
 		} catch (IOException e) {
-			return Collections.emptyList();
+			return new RepositoryRoutes<>(Collections.<RemoteRepository> emptyList());
 		}
-		return urls;
+		final RepositoryRoutes<RemoteRepository> routes = new RepositoryRoutes<>(defaults);
+		for (Map.Entry<String, List<RemoteRepository>> rule : rules.entrySet()) {
+			try {
+				routes.add(rule.getKey(), rule.getValue());
+			} catch (IllegalArgumentException e) {
+				MavenResolver.warn(e.getMessage());
+			}
+		}
+		return routes;
 	}
 
-	InputStream resolveLocal(final MavenArtifact artifact) throws IOException {
-		return local.resolve(artifact).result;
+	/**
+	 * @return
+	 * 		the remote repository for the URL, created if it has not been configured before
+	 */
+	private RemoteRepository remote(final URL url) {
+		for (RemoteRepository r : remotes) {
+			if (r.getUrl().toString().equals(url.toString()))
+				return r;
+		}
+		final RemoteRepository r = new RemoteRepository(url, client, negativeCache, checksumExec, ranking);
+		remotes.add(r);
+		return r;
 	}
 
 	Path resolveLocalUrl(final MavenArtifact artifact) throws IOException {
 		return local.resolveFile(artifact);
 	}
 
+	/**
+	 * Resolves SNAPSHOT versions to the latest timestamped snapshot, and LATEST, RELEASE and 
+	 * version ranges to the highest matching version, based on the maven-metadata.xml files of
+	 * the remote repositories, and the versions available locally.
+	 * @param artifact
+	 * @return
+	 * 		the artifact itself if its version is not dynamic, an artifact with concrete version, 
+	 * 		or null if no matching version is available
+	 * @throws IOException
+	 */
+	MavenArtifact resolveVersion(final MavenArtifact artifact) throws IOException {
+		final String version = artifact.getVersion();
+		if (!Versions.isDynamic(version))
+			return artifact;
+		final List<RemoteRepository> repos = routes.select(artifact.getGroupId());
+		if (Versions.isSnapshot(version)) {
+			String best = null;
+			for (RemoteRepository r : repos) {
+				final MavenMetadata md = getMetadata(r, artifact, true);
+				final String snapshot = md != null ? md.getSnapshotVersion(version, "jar") : null;
+				if (snapshot != null && (best == null || Versions.compare(snapshot, best) > 0))
+					best = snapshot;
+			}
+			// without remote metadata, a snapshot in the local repository is used as is
+			if (best != null)
+				MavenResolver.debug("Resolved {} to {}", artifact, best);
+			return best == null ? artifact : artifact.withVersion(best);
+		}
+		final Set<String> versions = new HashSet<>(local.getVersions(artifact));
+		for (RemoteRepository r : repos) {
+			final MavenMetadata md = getMetadata(r, artifact, false);
+			if (md == null)
+				continue;
+			versions.addAll(md.versions);
+			if (md.latest != null)
+				versions.add(md.latest);
+			if (md.release != null)
+				versions.add(md.release);
+		}
+		final String selected = Versions.select(version, versions);
+		if (selected == null) {
+			MavenResolver.warn("No version matching " + version + " found for " + artifact);
+			return null;
+		}
+		MavenResolver.debug("Resolved {} to version {}", artifact, selected);
+		final MavenArtifact concrete = artifact.withVersion(selected);
+		return Versions.isSnapshot(selected) ? resolveVersion(concrete) : concrete;
+	}
+
+	/**
+	 * @return
+	 * 		null if the repository does not provide metadata for the artifact, or the metadata is not available
+	 */
+	private MavenMetadata getMetadata(final RemoteRepository r, final MavenArtifact artifact, final boolean snapshot) throws IOException {
+		try {
+			return metadata.get(r.getUrl().toString(), artifact, snapshot);
+		} catch (IOException e) {
+			if (isInterrupt(e))
+				throw e;
+			MavenResolver.warn("Failed to download metadata for " + artifact + " from " + r + ": " + e);
+			return null;
+		}
+	}
+
+	/**
+	 * @see LocalMavenRepo#getSha1(MavenArtifact, boolean)
+	 */
+	String getSha1(final MavenArtifact artifact, final boolean compute) {
+		return local.getSha1(artifact, compute);
+	}
+
+	/**
+	 * @see LocalMavenRepo#invalidate(MavenArtifact)
+	 */
+	void invalidate(final MavenArtifact artifact) {
+		local.invalidate(artifact);
+	}
+
 	boolean resolve(final MavenArtifact artifact) throws IOException {
-		for (Repository r : chain) {
-			try (final ResolutionResult result = r.resolve(artifact)) {
-				if (result != null) {
-					if (r != local) {
-						try {
-							local.installArtifact(artifact, result, true);
-						} catch (IOException e) {
-							MavenResolver.warn("Failed to install artifact " + artifact + " in local Maven repository", e);
-							return false;
-						}
+		if (local.resolveFile(artifact) != null) {
+			if (!verify || local.verify(artifact, true)) {
+				localStats.hit();
+				return true;
+			}
+			MavenResolver.warn("Artifact " + artifact + " in local repository is corrupt, downloading it again");
+			localStats.checksumFailure();
+			local.discard(artifact);
+		}
+		localStats.miss();
+		// a checksum mismatch is retried once with a fresh download, 
+		// an interrupted transfer up to downloadRetries times, resuming the partial download
+		boolean checksumRetried = false;
+		int transferRetries = 0;
+		while (true) {
+			final PartialDownload partial = local.getPartialDownload(artifact);
+			if (partial != null)
+				MavenResolver.debug("Found partial download of {}: {}", artifact, partial);
+			final long start = System.nanoTime();
+			try (final ResolutionResult result = resolveRemote(artifact, partial)) {
+				if (result == null)
+					break;
+				try {
+					final long transferStart = System.nanoTime();
+					final long bytes = local.installArtifact(artifact, result);
+					final long end = System.nanoTime();
+					if (result.stats != null) {
+						result.stats.download(bytes, end - start);
+						if (ranking != null)
+							ranking.download(result.stats.getName(), bytes, end - transferStart);
 					}
+					StartupTrace.span(artifact.getCoordinates(), "download", start, end, result.stats != null ? result.stats.getName() : null);
 					return true;
+				} catch (ChecksumMismatchException e) {
+					if (result.stats != null)
+						result.stats.checksumFailure();
+					if (checksumRetried) {
+						MavenResolver.warn("Failed to install artifact " + artifact + " in local Maven repository", e);
+						return false;
+					}
+					checksumRetried = true;
+					MavenResolver.warn(e.getMessage() + " Retrying.");
+				} catch (IOException e) {
+					if (isInterrupt(e))
+						throw e;
+					if (result.stats != null)
+						result.stats.error();
+					if (transferRetries++ >= downloadRetries) {
+						MavenResolver.warn("Failed to install artifact " + artifact + " in local Maven repository", e);
+						return false;
+					}
+					MavenResolver.warn("Download of " + artifact + " failed, retrying: " + e);
 				}
 			}
 		}
@@ -116,6 +323,90 @@ class ResolverChain {
 		return false;
 	}
 
+	/**
+	 * @param artifact
+	 * @return
+	 * 		the pom file of the artifact in the local repository, downloaded if necessary; 
+	 * 		null if no repository hosts the pom
+	 * @throws IOException
+	 */
+	Path resolvePom(final MavenArtifact artifact) throws IOException {
+		final Path file = local.resolvePom(artifact);
+		if (file != null)
+			return file;
+		final List<RemoteRepository> repos = routes.select(artifact.getGroupId());
+		for (RemoteRepository r : ranking != null ? ranking.order(repos, artifact) : repos) {
+			final byte[] pom;
+			try {
+				pom = r.resolvePom(artifact);
+			} catch (IOException e) {
+				if (isInterrupt(e))
+					throw e;
+				MavenResolver.warn("Failed to download pom of " + artifact + " from " + r + ": " + e);
+				continue;
+			}
+			if (pom != null)
+				return local.installPom(artifact, pom);
+		}
+		return null;
+	}
+
+	private ResolutionResult resolveRemote(final MavenArtifact artifact, final PartialDownload partial) throws IOException {
+		final List<RemoteRepository> repos = routes.select(artifact.getGroupId());
+		final List<RemoteRepository> candidates = new ArrayList<>(repos.size());
+		for (RemoteRepository r : repos) {
+			if (r.isKnownMiss(artifact))
+				MavenResolver.debug("Skipping {} for {}, known miss", r, artifact);
+			else
+				candidates.add(r);
+		}
+		final List<RemoteRepository> ordered = ranking != null ? ranking.order(candidates, artifact) : candidates;
+		if (hedgedLookup != null) {
+			try {
+				return hedgedLookup.resolve(ordered, artifact, partial);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while resolving " + artifact);
+			}
+		}
+		for (RemoteRepository r : ordered) {
+			final ResolutionResult result;
+			try {
+				result = r.resolve(artifact, partial);
+			} catch (IOException e) {
+				if (isInterrupt(e))
+					throw e;
+				MavenResolver.warn("Failed to query " + r + " for " + artifact + ": " + e);
+				continue;
+			}
+			if (result != null)
+				return result;
+		}
+		return null;
+	}
+
+	/**
+	 * Note that a {@link SocketTimeoutException} is an {@link InterruptedIOException}, too,
+	 * but does not signal an interrupt. 
+	 */
+	static boolean isInterrupt(final IOException e) {
+		return e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException);
+	}
+
+	/**
+	 * Persists cached state and releases all connections and threads; 
+	 * the chain must not be used afterwards.
+	 */
+	void close() {
+		negativeCache.flush();
+		local.flush();
+		if (ranking != null)
+			ranking.flush();
+		if (lookupExec != null)
+			lookupExec.shutdownNow();
+		checksumExec.shutdownNow();
+		client.close();
+	}
 
 
 }
@@ -0,0 +1,58 @@
+/**
+ * Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.drivers.maven.resolver.impl;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class ResolverExecutors {
+
+	/**
+	 * A bounded pool of daemon threads; idle threads terminate after a few seconds,
+	 * so a pool that is not shut down explicitly does not keep any threads alive.
+	 * @param name
+	 * 		thread name prefix
+	 * @param size
+	 * 		maximum number of threads; values smaller than 1 are treated as 1
+	 * @return
+	 */
+	static ExecutorService newPool(final String name, final int size) {
+		final int n = Math.max(1, size);
+		final ThreadPoolExecutor exec = new ThreadPoolExecutor(n, n, 10, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), threadFactory(name));
+		exec.allowCoreThreadTimeOut(true);
+		return exec;
+	}
+
+	static ThreadFactory threadFactory(final String name) {
+		return new ThreadFactory() {
+
+			private final AtomicInteger cnt = new AtomicInteger(0);
+
+			@Override
+			public Thread newThread(Runnable r) {
+				final Thread t = new Thread(r, name + "-" + cnt.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.drivers.maven.resolver.impl;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.osgi.framework.BundleContext;
+
+/**
+ * Timeline of a clean start or reconciliation, written to the bundle data area in the 
+ * Chrome trace event format, which can be opened in chrome://tracing or Perfetto.
+ * Spans are recorded from any thread while a trace is active, as complete ("X") events 
+ * with the id and name of the thread they ran on. Outside of a trace, recording a span
+ * is a no-op.
+ */
+class StartupTrace {
+
+	final static String FILE_NAME = "startup-trace.json";
+	// null if no trace is being recorded
+	private static volatile StartupTrace current;
+	private final long startNanos = System.nanoTime();
+	private final long startMillis = System.currentTimeMillis();
+	private final Queue<Event> events = new ConcurrentLinkedQueue<>();
+
+	private StartupTrace() {}
+
+	/**
+	 * Starts recording a new trace, unless tracing is disabled by the framework property 
+	 * org.smartrplace.maven.resolver.trace.
+	 * @param ctx
+	 */
+	static void begin(final BundleContext ctx) {
+		if (Properties.getBoolean(ctx, Properties.TRACE_PROPERTY, true))
+			current = new StartupTrace();
+	}
+
+	/**
+	 * Stops recording and writes the trace to the bundle data area, if a trace is active.
+	 * @param ctx
+	 */
+	static void end(final BundleContext ctx) {
+		final StartupTrace trace = current;
+		current = null;
+		if (trace == null)
+			return;
+		final File file = ctx.getDataFile(FILE_NAME);
+		if (file == null)
+			return;
+		try {
+			trace.write(file.toPath());
+			MavenResolver.debug("Startup trace written to {}", file);
+		} catch (IOException e) {
+			MavenResolver.warn("Failed to write startup trace " + file, e);
+		}
+	}
+
+	/**
+	 * Records a span that ends now, on the current thread.
+	 * @param name
+	 * @param category
+	 * @param startNanos
+	 * 		start time, as returned by {@link System#nanoTime()}
+	 */
+	static void span(final String name, final String category, final long startNanos) {
+		span(name, category, startNanos, System.nanoTime(), null);
+	}
+
+	/**
+	 * Records a span on the current thread.
+	 * @param name
+	 * @param category
+	 * @param startNanos
+	 * 		start time, as returned by {@link System#nanoTime()}
+	 * @param endNanos
+	 * 		end time, as returned by {@link System#nanoTime()}
+	 * @param detail
+	 * 		shown as argument of the event; may be null
+	 */
+	static void span(final String name, final String category, final long startNanos, final long endNanos, final String detail) {
+		final StartupTrace trace = current;
+		if (trace == null)
+			return;
+		final Thread thread = Thread.currentThread();
+		trace.events.add(new Event(name, category, startNanos, endNanos, thread.getId(), thread.getName(), detail));
+	}
+
+	private void write(final Path file) throws IOException {
+		LocalMavenRepo.writeAtomically(file, new LocalMavenRepo.FileContent() {
+
+			@Override
+			public void write(final BufferedWriter writer) throws IOException {
+				writer.write("{\"displayTimeUnit\":\"ms\",\"otherData\":{\"startTime\":" + startMillis + "},\"traceEvents\":[");
+				writer.newLine();
+				writer.write("{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":1,\"args\":{\"name\":\"maven-resolver\"}}");
+				final Map<Long, String> threads = new HashMap<>();
+				for (Event e : events) {
+					writer.write(",");
+					writer.newLine();
+					writer.write("{\"name\":" + quote(e.name) + ",\"cat\":" + quote(e.category) + ",\"ph\":\"X\",\"pid\":1,\"tid\":" + e.threadId
+							+ ",\"ts\":" + micros(e.startNanos - startNanos) + ",\"dur\":" + micros(e.endNanos - e.startNanos));
+					if (e.detail != null)
+						writer.write(",\"args\":{\"detail\":" + quote(e.detail) + "}");
+					writer.write("}");
+					threads.put(e.threadId, e.threadName);
+				}
+				for (Map.Entry<Long, String> thread : threads.entrySet()) {
+					writer.write(",");
+					writer.newLine();
+					writer.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":" + thread.getKey() 
+							+ ",\"args\":{\"name\":" + quote(thread.getValue()) + "}}");
+				}
+				writer.newLine();
+				writer.write("]}");
+				writer.newLine();
+			}
+		});
+	}
+
+	private static long micros(final long nanos) {
+		return TimeUnit.NANOSECONDS.toMicros(nanos);
+	}
+
+	private static String quote(final String value) {
+		final StringBuilder sb = new StringBuilder(value.length() + 2);
+		sb.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			switch (c) {
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			default:
+				if (c < 0x20)
+					sb.append(String.format("\\u%04x", (int) c));
+				else
+					sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+
+	private static class Event {
+
+		final String name;
+		final String category;
+		final long startNanos;
+		final long endNanos;
+		final long threadId;
+		final String threadName;
+		// may be null
+		final String detail;
+
+		Event(String name, String category, long startNanos, long endNanos, long threadId, String threadName, String detail) {
+			this.name = name;
+			this.category = category;
+			this.startNanos = startNanos;
+			this.endNanos = endNanos;
+			this.threadId = threadId;
+			this.threadName = threadName;
+			this.detail = detail;
+		}
+
+	}
+
+}
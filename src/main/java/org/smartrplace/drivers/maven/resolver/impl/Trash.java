@@ -0,0 +1,185 @@
+/**
+ * Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.drivers.maven.resolver.impl;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+import org.osgi.framework.BundleContext;
+
+/**
+ * Files and folders to be deleted are renamed into a trash folder in the state dir,
+ * which takes constant time, and the trash is purged in the background by low priority threads.
+ * Whatever is left over when the framework stops is purged on the next clean start.
+ */
+class Trash {
+
+	private final Path dir;
+	// guarded by this
+	private ForkJoinPool pool;
+
+	Trash(Path dir) {
+		this.dir = dir;
+	}
+
+	static Trash get(final BundleContext ctx) {
+		return new Trash(Properties.getStateDir(ctx).resolve("trash"));
+	}
+
+	/**
+	 * Moves the files or folders into the trash, or deletes them directly, if they cannot be moved atomically,
+	 * e.g. because they reside on a different file system.
+	 * @param paths
+	 */
+	void delete(final List<Path> paths) {
+		Path batch = null;
+		int cnt = 0;
+		for (Path path : paths) {
+			if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS))
+				continue;
+			try {
+				if (!MavenResolver.isSubdir(path, dir)) {
+					if (batch == null) {
+						Files.createDirectories(dir);
+						batch = Files.createTempDirectory(dir, "delete");
+					}
+					try {
+						Files.move(path, batch.resolve(cnt++ + "-" + path.getFileName()), StandardCopyOption.ATOMIC_MOVE);
+						MavenResolver.debug("Moved {} to trash", path);
+						continue;
+					} catch (AtomicMoveNotSupportedException e) {
+						MavenResolver.debug("Cannot move {} to trash, deleting it", path);
+					}
+				}
+				deleteRecursively(path);
+			} catch (IOException e) {
+				MavenResolver.warn("Failed to delete file/folder " + path, e);
+			}
+		}
+	}
+
+	/**
+	 * Purges the trash in the background; returns immediately.
+	 * @param parallelism
+	 */
+	synchronized void purge(final int parallelism) {
+		if (pool != null || !Files.isDirectory(dir))
+			return;
+		pool = new ForkJoinPool(Math.max(1, parallelism), new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+
+			@Override
+			public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+				final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+				thread.setName("maven-resolver-trash-" + thread.getPoolIndex());
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		}, null, false);
+		final List<PurgeTask> tasks = new ArrayList<>();
+		try (final DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+			for (Path p : stream) {
+				tasks.add(new PurgeTask(p));
+			}
+		} catch (IOException e) {
+			MavenResolver.warn("Failed to purge trash " + dir, e);
+		}
+		for (PurgeTask task : tasks) {
+			pool.execute(task);
+		}
+		pool.shutdown();
+	}
+
+	/**
+	 * Stops purging the trash.
+	 */
+	synchronized void close() {
+		if (pool != null)
+			pool.shutdownNow();
+	}
+
+	static void deleteRecursively(final Path p) throws IOException {
+		if (Files.isRegularFile(p)) {
+			MavenResolver.debug("Deleting file {}", p);
+			Files.delete(p);
+		}
+		else if (Files.isDirectory(p)) {
+			MavenResolver.debug("Deleting folder {}", p);
+			Files.walkFileTree(p, new SimpleFileVisitor<Path>() {
+
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+					Files.delete(file);
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+					Files.delete(dir);
+				    return FileVisitResult.CONTINUE;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Deletes a file, or a folder, whose subfolders are deleted by forked tasks.
+	 */
+	@SuppressWarnings("serial")
+	private static class PurgeTask extends RecursiveAction {
+
+		private final Path path;
+
+		PurgeTask(Path path) {
+			this.path = path;
+		}
+
+		@Override
+		protected void compute() {
+			try {
+				if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+					final List<PurgeTask> subtasks = new ArrayList<>();
+					try (final DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+						for (Path p : stream) {
+							if (Files.isDirectory(p, LinkOption.NOFOLLOW_LINKS))
+								subtasks.add(new PurgeTask(p));
+							else
+								Files.delete(p);
+						}
+					}
+					invokeAll(subtasks);
+				}
+				Files.delete(path);
+			} catch (IOException e) {
+				MavenResolver.warn("Failed to purge " + path + " from trash", e);
+			}
+		}
+
+	}
+
+}
@@ -19,6 +19,7 @@ import java.io.IOException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.nio.file.Path;
+import java.util.concurrent.Callable;
 
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
@@ -41,34 +42,57 @@ import org.osgi.service.url.URLStreamHandlerService;
 public class UrlHandlerMvn extends AbstractURLStreamHandlerService {
 	
 	private volatile ResolverChain resolverChain;
+	private volatile ArtifactPathCache cache;
 	
 	@Activate
 	protected void activate(final BundleContext ctx) throws IOException {
+		this.cache = new ArtifactPathCache(Properties.getInt(ctx, Properties.URL_CACHE_SIZE_PROPERTY, Properties.URL_CACHE_SIZE_DEFAULT),
+				Properties.getLong(ctx, Properties.URL_CACHE_TTL_PROPERTY, Properties.URL_CACHE_TTL_DEFAULT));
 		this.resolverChain = new ResolverChain(ctx);
 	}
 	
 	@Deactivate
 	protected void deactivate() {
+		final ResolverChain chain = this.resolverChain;
+		final ArtifactPathCache cache = this.cache;
 		this.resolverChain = null;
+		this.cache = null;
+		if (cache != null)
+			cache.clear();
+		if (chain != null)
+			chain.close();
 	}
 	
 	@Override
-	public URLConnection openConnection(URL url) throws IOException {
+	public URLConnection openConnection(final URL url) throws IOException {
 		if (!"mvn".equalsIgnoreCase(url.getProtocol()))
 			throw new IllegalArgumentException("Unsupported protocol " + url.getProtocol());
 		final String[] components = url.getPath().split("/");
 		if (components.length < 3)
 			throw new IllegalArgumentException("Invalid Maven coordinates " + url.getPath());
 		final ResolverChain chain = this.resolverChain;
-		if (chain == null)
+		final ArtifactPathCache cache = this.cache;
+		if (chain == null || cache == null)
 			throw new IllegalStateException("Service is inactive");
 		final String groupId = components[0];
 		final String artifactId = components[1];
 		final String version = components[2];
-		final MavenArtifact artifact = new MavenArtifact(groupId, artifactId, version, 1, true);
-		if (!resolverChain.resolve(artifact))
+		final MavenArtifact requested = new MavenArtifact(groupId, artifactId, version, 1, true);
+		final ArtifactPathCache.Lookup lookup = cache.get(requested, new Callable<ArtifactPathCache.Lookup>() {
+
+			@Override
+			public ArtifactPathCache.Lookup call() throws IOException {
+				final MavenArtifact artifact = chain.resolveVersion(requested);
+				if (artifact == null)
+					throw new IllegalStateException("No matching version found: " + url.getPath());
+				final boolean remote = chain.resolveLocalUrl(artifact) == null;
+				return new ArtifactPathCache.Lookup(chain.resolve(artifact) ? chain.resolveLocalUrl(artifact) : null, remote);
+			}
+		});
+		final Path newUrl = lookup.path;
+		Metrics.urlHandler().request(!lookup.remote && newUrl != null);
+		if (newUrl == null)
 			throw new IllegalStateException("Artifact not found: " + url.getPath());
-		final Path newUrl = resolverChain.resolveLocalUrl(artifact);
 		return newUrl.toUri().toURL().openConnection();
 	}
 
@@ -0,0 +1,264 @@
+/**
+ * Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.drivers.maven.resolver.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Maven version handling: comparison, ranges, and the special versions LATEST, RELEASE and SNAPSHOTs.
+ */
+class Versions {
+
+	final static String LATEST = "LATEST";
+	final static String RELEASE = "RELEASE";
+	final static String SNAPSHOT = "SNAPSHOT";
+	// version-yyyyMMdd.HHmmss-buildNumber
+	private final static Pattern TIMESTAMPED_SNAPSHOT = Pattern.compile("^(.*)-(\\d{8}\\.\\d{6})-(\\d+)$");
+	// in ascending order; unknown qualifiers rank after the release
+	private final static List<String> QUALIFIERS = Arrays.asList("alpha", "beta", "milestone", "rc", "snapshot", "", "sp");
+
+	static final Comparator<String> COMPARATOR = new Comparator<String>() {
+
+		@Override
+		public int compare(String o1, String o2) {
+			return Versions.compare(o1, o2);
+		}
+	};
+
+	private Versions() {}
+
+	/**
+	 * @return
+	 * 		true if the version needs to be resolved via the repository metadata
+	 */
+	static boolean isDynamic(final String version) {
+		return isSnapshot(version) || isRange(version) || LATEST.equals(version) || RELEASE.equals(version);
+	}
+
+	static boolean isSnapshot(final String version) {
+		return version.endsWith("-" + SNAPSHOT);
+	}
+
+	static boolean isRange(final String version) {
+		return version.startsWith("[") || version.startsWith("(");
+	}
+
+	/**
+	 * @return
+	 * 		the snapshot version, e.g. 1.0-SNAPSHOT for 1.0-20180101.120000-3, or the version itself
+	 * 		if it is not a timestamped snapshot
+	 */
+	static String getBaseVersion(final String version) {
+		if (version == null)
+			return null;
+		final Matcher m = TIMESTAMPED_SNAPSHOT.matcher(version);
+		return m.matches() ? m.group(1) + "-" + SNAPSHOT : version;
+	}
+
+	/**
+	 * Selects a version from the available ones.
+	 * @param version
+	 * 		LATEST, RELEASE or a range
+	 * @param available
+	 * @return
+	 * 		the highest matching version, or null. Snapshots are only selected for LATEST.
+	 */
+	static String select(final String version, final Collection<String> available) {
+		String best = null;
+		for (String v : available) {
+			if (!LATEST.equals(version) && isSnapshot(v))
+				continue;
+			if (isRange(version) && !inRange(version, v))
+				continue;
+			if (best == null || compare(v, best) > 0)
+				best = v;
+		}
+		return best;
+	}
+
+	/**
+	 * @param range
+	 * 		a version range, such as [1.0,2.0), (,1.5], [1.2] or [1.0,2.0),[3.0,)
+	 * @param version
+	 * @return
+	 */
+	static boolean inRange(final String range, final String version) {
+		int start = 0;
+		while (start < range.length()) {
+			final char open = range.charAt(start);
+			if (open == ',' || Character.isWhitespace(open)) {
+				start++;
+				continue;
+			}
+			int end = start + 1;
+			while (end < range.length() && range.charAt(end) != ']' && range.charAt(end) != ')')
+				end++;
+			if (end >= range.length())
+				return false;
+			if (inRestriction(open, range.substring(start + 1, end), range.charAt(end), version))
+				return true;
+			start = end + 1;
+		}
+		return false;
+	}
+
+	private static boolean inRestriction(final char open, final String bounds, final char close, final String version) {
+		final int comma = bounds.indexOf(',');
+		if (comma < 0) // [1.0]
+			return compare(version, bounds.trim()) == 0;
+		final String lower = bounds.substring(0, comma).trim();
+		final String upper = bounds.substring(comma + 1).trim();
+		if (!lower.isEmpty()) {
+			final int c = compare(version, lower);
+			if (c < 0 || (c == 0 && open == '('))
+				return false;
+		}
+		if (!upper.isEmpty()) {
+			final int c = compare(version, upper);
+			if (c > 0 || (c == 0 && close == ')'))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * A simplified version of Maven's version ordering: numeric components are compared numerically,
+	 * known qualifiers in the order alpha &lt; beta &lt; milestone &lt; rc &lt; snapshot &lt; release &lt; sp,
+	 * and other qualifiers lexically.
+	 */
+	static int compare(final String v1, final String v2) {
+		final List<String> c1 = split(v1);
+		final List<String> c2 = split(v2);
+		for (int i = 0; i < Math.max(c1.size(), c2.size()); i++) {
+			final String a = i < c1.size() ? c1.get(i) : null;
+			final String b = i < c2.size() ? c2.get(i) : null;
+			final int c = compareComponents(a, b);
+			if (c != 0)
+				return c;
+		}
+		return 0;
+	}
+
+	private static int compareComponents(final String a, final String b) {
+		final boolean aNumeric = a == null || isNumeric(a);
+		final boolean bNumeric = b == null || isNumeric(b);
+		if (aNumeric && bNumeric) {
+			// missing components count as 0
+			final String x = a == null ? "0" : a;
+			final String y = b == null ? "0" : b;
+			if (x.length() != y.length())
+				return x.length() - y.length();
+			return x.compareTo(y);
+		}
+		// a numeric component is greater than a qualifier, unless it is missing
+		if (aNumeric)
+			return a == null ? -compareQualifiers(b, "") : 1;
+		if (bNumeric)
+			return b == null ? compareQualifiers(a, "") : -1;
+		return compareQualifiers(a, b);
+	}
+
+	private static int compareQualifiers(final String a, final String b) {
+		final int i = rank(a);
+		final int j = rank(b);
+		if (i != j)
+			return i - j;
+		return a.compareTo(b);
+	}
+
+	private static int rank(String qualifier) {
+		switch (qualifier) {
+		case "a":
+			qualifier = "alpha";
+			break;
+		case "b":
+			qualifier = "beta";
+			break;
+		case "m":
+			qualifier = "milestone";
+			break;
+		case "cr":
+			qualifier = "rc";
+			break;
+		case "ga":
+		case "final":
+		case "release":
+			qualifier = "";
+			break;
+		}
+		final int idx = QUALIFIERS.indexOf(qualifier);
+		return idx >= 0 ? idx : QUALIFIERS.size();
+	}
+
+	private static boolean isNumeric(final String s) {
+		for (int i = 0; i < s.length(); i++) {
+			if (!Character.isDigit(s.charAt(i)))
+				return false;
+		}
+		return !s.isEmpty();
+	}
+
+	/**
+	 * Splits the version at dots, hyphens and transitions between digits and letters,
+	 * and drops trailing zeros, so that 1.0 equals 1.
+	 */
+	private static List<String> split(final String version) {
+		final List<String> components = new ArrayList<>();
+		final String v = version.toLowerCase(Locale.ENGLISH);
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < v.length(); i++) {
+			final char c = v.charAt(i);
+			if (c == '.' || c == '-' || c == '_') {
+				add(components, sb);
+				continue;
+			}
+			if (sb.length() > 0 && Character.isDigit(c) != Character.isDigit(sb.charAt(sb.length() - 1)))
+				add(components, sb);
+			sb.append(c);
+		}
+		add(components, sb);
+		while (!components.isEmpty()) {
+			final String last = components.get(components.size() - 1);
+			if (!"0".equals(last) && (isNumeric(last) || rank(last) != QUALIFIERS.indexOf("")))
+				break;
+			components.remove(components.size() - 1);
+		}
+		return components;
+	}
+
+	private static void add(final List<String> components, final StringBuilder sb) {
+		if (sb.length() == 0)
+			return;
+		String s = sb.toString();
+		if (isNumeric(s)) {
+			// strip leading zeros
+			int i = 0;
+			while (i < s.length() - 1 && s.charAt(i) == '0')
+				i++;
+			s = s.substring(i);
+		}
+		components.add(s);
+		sb.setLength(0);
+	}
+
+}
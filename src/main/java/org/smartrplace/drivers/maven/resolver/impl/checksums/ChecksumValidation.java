@@ -1,6 +1,7 @@
 package org.smartrplace.drivers.maven.resolver.impl.checksums;
 
 import java.io.InputStream;
+import java.security.MessageDigest;
 
 public interface ChecksumValidation {
 	
@@ -9,6 +10,11 @@ public interface ChecksumValidation {
 	 * @return
 	 */
 	String algorithm();
+	/**
+	 * @return
+	 * 		a new digest instance for this algorithm, for computing the checksum while streaming
+	 */
+	MessageDigest newDigest();
 	boolean validate(byte[] bytes, String expectedResultHex);
 	boolean validate(InputStream stream, String expectedResultHex);
 	
@@ -1,16 +1,28 @@
 package org.smartrplace.drivers.maven.resolver.impl.checksums;
 
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
 import java.util.Map;
 
+import org.apache.commons.codec.binary.Hex;
+
 public class Checksums {
 
 	private final static Map<String, ChecksumValidation> algorithms;
+	// files are mapped into memory in chunks of this size
+	private final static long MAP_CHUNK_SIZE = 64 * 1024 * 1024;
 	
 	static {
-		final Map<String, ChecksumValidation> algos = new HashMap<>(4);
+		// in order of preference
+		final Map<String, ChecksumValidation> algos = new LinkedHashMap<>(4);
 		algos.put("sha1", new Sha1ChecksumValidation());
 		algos.put("md5", new Md5ChecksumValidation());
 		algorithms = Collections.unmodifiableMap(algos);
@@ -20,8 +32,54 @@ public class Checksums {
 		return algorithms.get(algo);
 	}
 	
+	/**
+	 * @return
+	 * 		the supported algorithms, in order of preference
+	 */
 	public static Collection<String> getAlgos() {
 		return algorithms.keySet();
 	}
+
+	/**
+	 * Extracts the hex checksum from the content of a checksum file, which may contain
+	 * trailing whitespace or the file name after the checksum.
+	 * @param content
+	 * @return
+	 * 		the lower case checksum, or null if content is null or empty
+	 */
+	public static String parseChecksum(String content) {
+		if (content == null)
+			return null;
+		content = content.trim();
+		if (content.isEmpty())
+			return null;
+		final String[] tokens = content.split("\\s+", 2);
+		return tokens[0].toLowerCase(Locale.ENGLISH);
+	}
+
+	/**
+	 * Updates all digests with the content of the file, which is read via memory mapping, 
+	 * so that the file content is not copied to the heap. 
+	 * @param file
+	 * @param digests
+	 * @throws IOException
+	 */
+	public static void digest(Path file, MessageDigest... digests) throws IOException {
+		try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			final long size = channel.size();
+			for (long position = 0; position < size; position += MAP_CHUNK_SIZE) {
+				final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_CHUNK_SIZE, size - position));
+				for (MessageDigest digest : digests) {
+					digest.update(buffer.duplicate());
+				}
+			}
+		}
+	}
+
+	public static boolean matches(byte[] digest, String expectedResultHex) {
+		if (expectedResultHex == null)
+			return false;
+		return Hex.encodeHexString(digest).equalsIgnoreCase(expectedResultHex);
+	}
 	
 }
@@ -2,6 +2,7 @@ package org.smartrplace.drivers.maven.resolver.impl.checksums;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.MessageDigest;
 
 import org.apache.commons.codec.digest.DigestUtils;
 import org.smartrplace.drivers.maven.resolver.impl.MavenResolver;
@@ -13,6 +14,11 @@ class Md5ChecksumValidation implements ChecksumValidation {
 		return "md5";
 	}
 
+	@Override
+	public MessageDigest newDigest() {
+		return DigestUtils.getMd5Digest();
+	}
+
 	@Override
 	public boolean validate(byte[] bytes, String expectedResult) {
 		return DigestUtils.md5Hex(bytes).equals(expectedResult);
@@ -0,0 +1,86 @@
+/**
+ * Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.drivers.maven.resolver.metrics;
+
+/**
+ * Statistics of a repository used by the resolver, either the local repository or a remote one.
+ * Registered with the platform MBean server as 
+ * <code>org.smartrplace.maven.resolver:type=Repository,name=&lt;url&gt;</code>.
+ */
+public interface RepositoryMetricsMXBean {
+
+	/**
+	 * @return
+	 * 		the repository URL, or "local" for the local repository
+	 */
+	String getName();
+
+	/**
+	 * @return
+	 * 		number of artifact requests answered by the repository
+	 */
+	long getHits();
+
+	/**
+	 * @return
+	 * 		number of artifact requests for which the repository did not have the artifact
+	 */
+	long getMisses();
+
+	/**
+	 * @return
+	 * 		number of requests that failed, e.g. due to network errors
+	 */
+	long getErrors();
+
+	/**
+	 * @return
+	 * 		number of artifacts or poms whose checksum did not match
+	 */
+	long getChecksumFailures();
+
+	/**
+	 * @return
+	 * 		number of bytes downloaded
+	 */
+	long getBytes();
+
+	/**
+	 * @return
+	 * 		number of completed artifact downloads
+	 */
+	long getDownloads();
+
+	/**
+	 * @return
+	 * 		total duration of all completed downloads in ms
+	 */
+	long getDownloadTimeMillis();
+
+	/**
+	 * @return
+	 * 		upper bounds of the download time histogram buckets in ms, in ascending order. The
+	 * 		histogram has an additional bucket for longer downloads.
+	 */
+	long[] getDownloadTimeBucketsMillis();
+
+	/**
+	 * @return
+	 * 		number of downloads per bucket; the array is one element longer than {@link #getDownloadTimeBucketsMillis()}
+	 */
+	long[] getDownloadTimeHistogram();
+
+}
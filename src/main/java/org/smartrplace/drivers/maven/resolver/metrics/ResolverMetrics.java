@@ -0,0 +1,36 @@
+/**
+ * Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.drivers.maven.resolver.metrics;
+
+import java.util.Map;
+
+/**
+ * Entry point to the resolver statistics, registered as an OSGi service. The same 
+ * statistics are available via JMX, in the domain org.smartrplace.maven.resolver.
+ */
+public interface ResolverMetrics {
+
+	/**
+	 * @return
+	 * 		repository name -> statistics, for all repositories used so far
+	 */
+	Map<String, RepositoryMetricsMXBean> getRepositories();
+
+	UrlHandlerMetricsMXBean getUrlHandler();
+
+	StartupMetricsMXBean getStartup();
+
+}
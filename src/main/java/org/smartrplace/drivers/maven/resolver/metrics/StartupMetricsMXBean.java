@@ -0,0 +1,46 @@
+/**
+ * Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.drivers.maven.resolver.metrics;
+
+import java.util.Map;
+
+/**
+ * Timings of the last start of the resolver, i.e. of the installation of the configured
+ * bundles. Registered with the platform MBean server as 
+ * <code>org.smartrplace.maven.resolver:type=Startup</code>.
+ */
+public interface StartupMetricsMXBean {
+
+	/**
+	 * @return
+	 * 		phase -> duration in ms, in the order of execution. Phases are, among others, config, 
+	 * 		cleanUp, resolve, initDir, install, resolveBundles and start.
+	 */
+	Map<String, Long> getPhaseMillis();
+
+	/**
+	 * @return
+	 * 		total duration of the last start in ms, or -1 if it has not completed yet
+	 */
+	long getTotalMillis();
+
+	/**
+	 * @return
+	 * 		number of bundles installed or updated during the last start
+	 */
+	int getBundles();
+
+}
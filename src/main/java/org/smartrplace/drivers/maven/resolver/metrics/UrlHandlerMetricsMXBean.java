@@ -0,0 +1,49 @@
+/**
+ * Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.drivers.maven.resolver.metrics;
+
+/**
+ * Statistics of the mvn: URL handler. Registered with the platform MBean server as
+ * <code>org.smartrplace.maven.resolver:type=UrlHandler</code>.
+ */
+public interface UrlHandlerMetricsMXBean {
+
+	/**
+	 * @return
+	 * 		total number of mvn: URLs opened
+	 */
+	long getRequests();
+
+	/**
+	 * @return
+	 * 		average number of requests per second during the last minute
+	 */
+	double getRequestRate();
+
+	/**
+	 * @return
+	 * 		number of requests served from the local repository, without querying a remote repository
+	 */
+	long getLocalHits();
+
+	/**
+	 * @return
+	 * 		fraction of requests served from the local repository, between 0 and 1; 0 if there
+	 * 		have not been any requests
+	 */
+	double getLocalHitRatio();
+
+}